@@ -0,0 +1,109 @@
+package nuber.students;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A limiter that moves a region's limit using additive increase, multiplicative decrease.
+ * 
+ * A region can only usefully run as many bookings as dispatch has drivers for. Any booking
+ * past that just occupies a slot while it waits for a driver. So when a finished booking 
+ * spent more than DRIVER_WAIT_TOLERANCE of its total time waiting for a driver, the limit is
+ * cut by BACKOFF_RATIO. Otherwise, as long as the region was actually using at least half of
+ * its limit, the limit grows by one.
+ * 
+ * The limit always stays between the given minimum and maximum.
+ */
+public class AimdLimiter implements ConcurrencyLimiter {
+
+	/**
+	 * Share of a booking's time spent waiting for a driver above which the region is running too many bookings
+	 */
+	private static final double DRIVER_WAIT_TOLERANCE = 0.5;
+	/**
+	 * What the limit is multiplied by when congestion is seen
+	 */
+	private static final double BACKOFF_RATIO = 0.9;
+
+	private final int minLimit;
+	private int maxLimit;
+	private final AtomicInteger inFlight = new AtomicInteger(0);
+	private volatile int limit;
+	private double estimatedLimit;
+
+	/**
+	 * @param initialLimit The limit to start from
+	 * @param minLimit The lowest the limit can be cut to
+	 * @param maxLimit The highest the limit can grow to
+	 */
+	public AimdLimiter(int initialLimit, int minLimit, int maxLimit)
+	{
+		this.minLimit = Math.max(1, minLimit);
+		this.maxLimit = Math.max(this.minLimit, maxLimit);
+		this.estimatedLimit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+		this.limit = (int) estimatedLimit;
+	}
+
+	@Override
+	public boolean tryAcquire()
+	{
+		int current;
+		do {
+			current = inFlight.get();
+			if (current >= limit) {
+				return false;
+			}
+		} while (!inFlight.compareAndSet(current, current + 1));
+		return true;
+	}
+
+	@Override
+	public void release()
+	{
+		inFlight.decrementAndGet();
+	}
+
+	@Override
+	public void release(long driverWaitNanos, long latencyNanos)
+	{
+		// measured before giving back the permit, so it includes this booking
+		int used = inFlight.getAndDecrement();
+		adjustLimit(driverWaitNanos, latencyNanos, used);
+	}
+
+	private synchronized void adjustLimit(long driverWaitNanos, long latencyNanos, int used)
+	{
+		if (latencyNanos <= 0) {
+			return;
+		}
+		if (driverWaitNanos > latencyNanos * DRIVER_WAIT_TOLERANCE) {
+			estimatedLimit = Math.max(minLimit, estimatedLimit * BACKOFF_RATIO);
+		} else if (used * 2 >= limit) {
+			estimatedLimit = Math.min(maxLimit, estimatedLimit + 1);
+		}
+		limit = (int) estimatedLimit;
+	}
+
+	@Override
+	public int getLimit()
+	{
+		return limit;
+	}
+
+	/**
+	 * Changes the highest the limit can grow to, cutting the current limit if it is above it
+	 */
+	@Override
+	public synchronized void setMaxLimit(int maxLimit)
+	{
+		this.maxLimit = Math.max(minLimit, maxLimit);
+		estimatedLimit = Math.min(estimatedLimit, this.maxLimit);
+		limit = (int) estimatedLimit;
+	}
+
+	@Override
+	public int getInFlight()
+	{
+		return inFlight.get();
+	}
+
+}
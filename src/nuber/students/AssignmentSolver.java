@@ -0,0 +1,137 @@
+package nuber.students;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Solves the min-cost assignment problem with the Hungarian algorithm, used to match a batch
+ * of waiting bookings to idle drivers with the lowest total pickup time.
+ * 
+ * Rows are added to the assignment one at a time, each time finding the cheapest way to fit
+ * the new row in by shifting earlier rows to other columns. Most of the work is a scan over
+ * every column for the smallest reduced cost, and for wide problems that scan is split into 
+ * chunks run in parallel on the common ForkJoinPool.
+ */
+class AssignmentSolver {
+
+	/**
+	 * Problems with at least this many columns scan their columns in parallel
+	 */
+	static final int PARALLEL_COLUMNS = 1024;
+	private static final int COLUMNS_PER_CHUNK = 256;
+
+	/**
+	 * Finds the assignment of rows to distinct columns with the lowest total cost
+	 * 
+	 * @param cost The cost of assigning each row to each column, with no more rows than columns
+	 * @return The column assigned to each row
+	 */
+	static int[] solve(double[][] cost)
+	{
+		int rows = cost.length;
+		if (rows == 0) {
+			return new int[0];
+		}
+		int columns = cost[0].length;
+		if (rows > columns) {
+			throw new IllegalArgumentException("Cannot assign " + rows + " rows to " + columns + " columns");
+		}
+		boolean parallel = columns >= PARALLEL_COLUMNS;
+		int chunks = (columns + COLUMNS_PER_CHUNK - 1) / COLUMNS_PER_CHUNK;
+		double[] chunkDelta = new double[chunks];
+		int[] chunkColumn = new int[chunks];
+
+		// 1 based, with row and column 0 standing for "none"
+		double[] u = new double[rows + 1];
+		double[] v = new double[columns + 1];
+		int[] rowOfColumn = new int[columns + 1];
+		int[] previousColumn = new int[columns + 1];
+		double[] minReduced = new double[columns + 1];
+		boolean[] used = new boolean[columns + 1];
+
+		for (int row = 1; row <= rows; row++) {
+			rowOfColumn[0] = row;
+			int column0 = 0;
+			Arrays.fill(minReduced, Double.POSITIVE_INFINITY);
+			Arrays.fill(used, false);
+			do {
+				used[column0] = true;
+				int row0 = rowOfColumn[column0];
+				double[] rowCost = cost[row0 - 1];
+				int from = column0;
+				if (parallel) {
+					IntStream.range(0, chunks).parallel().forEach(chunk -> {
+						int start = 1 + chunk * COLUMNS_PER_CHUNK;
+						int end = Math.min(columns, start + COLUMNS_PER_CHUNK - 1);
+						scan(rowCost, u[row0], v, used, minReduced, previousColumn, from, start, end, chunkDelta, chunkColumn, chunk);
+					});
+				} else {
+					for (int chunk = 0; chunk < chunks; chunk++) {
+						int start = 1 + chunk * COLUMNS_PER_CHUNK;
+						int end = Math.min(columns, start + COLUMNS_PER_CHUNK - 1);
+						scan(rowCost, u[row0], v, used, minReduced, previousColumn, from, start, end, chunkDelta, chunkColumn, chunk);
+					}
+				}
+				double delta = Double.POSITIVE_INFINITY;
+				int column1 = 0;
+				for (int chunk = 0; chunk < chunks; chunk++) {
+					if (chunkDelta[chunk] < delta) {
+						delta = chunkDelta[chunk];
+						column1 = chunkColumn[chunk];
+					}
+				}
+				for (int column = 0; column <= columns; column++) {
+					if (used[column]) {
+						u[rowOfColumn[column]] += delta;
+						v[column] -= delta;
+					} else {
+						minReduced[column] -= delta;
+					}
+				}
+				column0 = column1;
+			} while (rowOfColumn[column0] != 0);
+			// shift the rows along the path that made room for the new row
+			do {
+				int column1 = previousColumn[column0];
+				rowOfColumn[column0] = rowOfColumn[column1];
+				column0 = column1;
+			} while (column0 != 0);
+		}
+
+		int[] assignment = new int[rows];
+		for (int column = 1; column <= columns; column++) {
+			if (rowOfColumn[column] != 0) {
+				assignment[rowOfColumn[column] - 1] = column - 1;
+			}
+		}
+		return assignment;
+	}
+
+	/**
+	 * Updates the smallest reduced cost of each unused column in [start, end], and records 
+	 * the smallest of them for the chunk
+	 */
+	private static void scan(double[] rowCost, double rowPotential, double[] v, boolean[] used, double[] minReduced,
+			int[] previousColumn, int from, int start, int end, double[] chunkDelta, int[] chunkColumn, int chunk)
+	{
+		double delta = Double.POSITIVE_INFINITY;
+		int best = 0;
+		for (int column = start; column <= end; column++) {
+			if (used[column]) {
+				continue;
+			}
+			double reduced = rowCost[column - 1] - rowPotential - v[column];
+			if (reduced < minReduced[column]) {
+				minReduced[column] = reduced;
+				previousColumn[column] = from;
+			}
+			if (minReduced[column] < delta) {
+				delta = minReduced[column];
+				best = column;
+			}
+		}
+		chunkDelta[chunk] = delta;
+		chunkColumn[chunk] = best;
+	}
+
+}
@@ -0,0 +1,234 @@
+package nuber.students;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Matches waiting bookings to idle drivers in batches, rather than one at a time.
+ * 
+ * Bookings that need a driver register a DriverWaiter and park on its handoff. Once every 
+ * window, the matcher's thread takes all of the waiters, and a few nearby idle drivers for 
+ * each of them, and assigns drivers to waiters so that the total pickup time is as low as 
+ * possible, using the AssignmentSolver. Each booking is then handed its driver directly.
+ * 
+ * When there are more waiters than drivers, the waiters first in priority order are matched
+ * and the rest wait for the next window, so priority and aging still decide who is served.
+ * 
+ * For every batch the matcher also works out what the greedy one-at-a-time matching would 
+ * have cost, so the gain from batching can be measured.
+ */
+public class BatchMatcher {
+
+	/**
+	 * How many idle drivers are considered for each waiting booking
+	 */
+	private final int CANDIDATES_PER_WAITER = 4;
+
+	private final NuberDispatch dispatch;
+	private final long windowNanos;
+	private final ConcurrentLinkedQueue<DriverWaiter> waiters = new ConcurrentLinkedQueue<DriverWaiter>();
+	private final Thread worker;
+	private volatile boolean stopped = false;
+
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder matchedBookings = new LongAdder();
+	private final DoubleAdder batchPickupMillis = new DoubleAdder();
+	private final DoubleAdder greedyPickupMillis = new DoubleAdder();
+
+	/**
+	 * Creates and starts a matcher
+	 * 
+	 * @param dispatch The dispatch whose idle drivers are matched
+	 * @param windowMillis How long waiters and drivers collect before each batch is matched
+	 */
+	BatchMatcher(NuberDispatch dispatch, long windowMillis)
+	{
+		this.dispatch = dispatch;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, windowMillis));
+		worker = new Thread(this::run, "nuber-batch-matcher");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Adds a booking to the next batch. The booking is handed its driver through the waiter.
+	 */
+	void addWaiter(DriverWaiter waiter)
+	{
+		waiters.add(waiter);
+	}
+
+	/**
+	 * Stops matching. Bookings still waiting are left to time out or be cancelled.
+	 */
+	void stop()
+	{
+		stopped = true;
+		LockSupport.unpark(worker);
+	}
+
+	private void run()
+	{
+		long nextBatch = System.nanoTime() + windowNanos;
+		while (!stopped) {
+			long sleepNanos;
+			while ((sleepNanos = nextBatch - System.nanoTime()) > 0 && !stopped) {
+				LockSupport.parkNanos(this, sleepNanos);
+			}
+			if (stopped) {
+				break;
+			}
+			try {
+				matchBatch();
+			} catch (Throwable t) {
+				t.printStackTrace();
+			}
+			nextBatch += windowNanos;
+			nextBatch = Math.max(nextBatch, System.nanoTime());
+		}
+	}
+
+	/**
+	 * Matches the waiters collected during the last window to the idle drivers
+	 */
+	private void matchBatch()
+	{
+		ArrayList<DriverWaiter> waiting = new ArrayList<DriverWaiter>();
+		DriverWaiter next;
+		while ((next = waiters.poll()) != null) {
+			if (!next.isDone()) {
+				waiting.add(next);
+			}
+		}
+		if (waiting.isEmpty()) {
+			return;
+		}
+		Collections.sort(waiting);
+
+		// a few of the nearest idle drivers to each waiter, taking turns so each gets some
+		ArrayList<Driver> drivers = new ArrayList<Driver>();
+		ArrayList<String> driverRegions = new ArrayList<String>();
+		for (int round = 0; round < CANDIDATES_PER_WAITER; round++) {
+			int before = drivers.size();
+			for (DriverWaiter waiter : waiting) {
+				Driver driver = dispatch.pollDriver(waiter.region, waiter.passenger);
+				if (driver == null) {
+					break;
+				}
+				drivers.add(driver);
+				driverRegions.add(waiter.region);
+			}
+			if (drivers.size() - before < waiting.size()) {
+				break;
+			}
+		}
+
+		int matched = Math.min(waiting.size(), drivers.size());
+		List<DriverWaiter> served = waiting.subList(0, matched);
+		boolean[] assigned = new boolean[drivers.size()];
+		if (matched > 0) {
+			double[][] cost = new double[matched][drivers.size()];
+			for (int row = 0; row < matched; row++) {
+				Passenger passenger = served.get(row).passenger;
+				for (int column = 0; column < drivers.size(); column++) {
+					cost[row][column] = passenger == null ? 0 : drivers.get(column).pickupMillisTo(passenger);
+				}
+			}
+			int[] assignment = AssignmentSolver.solve(cost);
+			double total = 0;
+			for (int row = 0; row < matched; row++) {
+				total += cost[row][assignment[row]];
+			}
+			batches.increment();
+			matchedBookings.add(matched);
+			batchPickupMillis.add(total);
+			greedyPickupMillis.add(greedyCost(cost));
+
+			for (int row = 0; row < matched; row++) {
+				int column = assignment[row];
+				if (served.get(row).offer(drivers.get(column))) {
+					assigned[column] = true;
+				}
+			}
+		}
+
+		// drivers that were not used, or whose booking withdrew, go back to being idle
+		for (int column = 0; column < drivers.size(); column++) {
+			if (!assigned[column]) {
+				dispatch.addDriver(drivers.get(column), driverRegions.get(column));
+			}
+		}
+		for (int row = matched; row < waiting.size(); row++) {
+			waiters.add(waiting.get(row));
+		}
+	}
+
+	/**
+	 * Works out the total cost of matching the rows in order, each to its cheapest column
+	 * still free, which is what one-at-a-time matching would have done with the same drivers
+	 */
+	private double greedyCost(double[][] cost)
+	{
+		boolean[] taken = new boolean[cost[0].length];
+		double total = 0;
+		for (double[] row : cost) {
+			int best = -1;
+			for (int column = 0; column < row.length; column++) {
+				if (!taken[column] && (best < 0 || row[column] < row[best])) {
+					best = column;
+				}
+			}
+			taken[best] = true;
+			total += row[best];
+		}
+		return total;
+	}
+
+	/**
+	 * @return The number of batches that matched at least one booking
+	 */
+	public long getBatches()
+	{
+		return batches.sum();
+	}
+
+	/**
+	 * @return The number of bookings matched to a driver
+	 */
+	public long getMatchedBookings()
+	{
+		return matchedBookings.sum();
+	}
+
+	/**
+	 * @return The total pickup time of every batch matched so far
+	 */
+	public double getBatchPickupMillis()
+	{
+		return batchPickupMillis.sum();
+	}
+
+	/**
+	 * @return The total pickup time greedy matching would have had for the same batches
+	 */
+	public double getGreedyPickupMillis()
+	{
+		return greedyPickupMillis.sum();
+	}
+
+	/**
+	 * @return The fraction of the greedy pickup time saved by matching in batches
+	 */
+	public double getPickupGain()
+	{
+		double greedy = greedyPickupMillis.sum();
+		return greedy <= 0 ? 0 : 1 - batchPickupMillis.sum() / greedy;
+	}
+
+}
@@ -0,0 +1,38 @@
+package nuber.students;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * The original idle driver queue: a bounded ArrayBlockingQueue, guarded by a single lock
+ */
+public class BlockingQueueDriverPool implements DriverPool {
+
+	private final ArrayBlockingQueue<Driver> drivers;
+
+	/**
+	 * @param capacity The most idle drivers the pool can hold
+	 */
+	public BlockingQueueDriverPool(int capacity)
+	{
+		drivers = new ArrayBlockingQueue<Driver>(capacity);
+	}
+
+	@Override
+	public boolean offer(Driver driver)
+	{
+		return drivers.offer(driver);
+	}
+
+	@Override
+	public Driver poll()
+	{
+		return drivers.poll();
+	}
+
+	@Override
+	public int size()
+	{
+		return drivers.size();
+	}
+
+}
@@ -1,6 +1,8 @@
 package nuber.students;
 
-import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -13,7 +15,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  * a BookingResult object is provided with the overall information for the booking.
  * 
  * The Booking must track how long it takes, from the instant it is created, to when the 
- * passenger arrives at their destination. This should be done using Date class' getTime().
+ * passenger arrives at their destination. Every phase is timed on the dispatch's NuberClock,
+ * which unlike the wall clock never jumps, and reported in the BookingResult.
  * 
  * Booking's should have a globally unique, sequential ID, allocated on their creation. 
  * This should be multi-thread friendly, allowing bookings to be created from different threads.
@@ -28,7 +31,28 @@ public class Booking {
 	private int jobID;
 	private NuberDispatch dispatch;
 	private Passenger passenger;
+	private String regionName;
 	private Driver driver;
+	private BookingPriority priority;
+	private long maxDriverWaitMillis;
+	private long queueOrderKey;
+	private final NuberClock clock;
+	private final long createdNanos;
+	private long queueWaitNanos;
+	/**
+	 * When the booking left the region's queue, or createdNanos if it is run without a region
+	 */
+	private long startedNanos;
+	private long driverWaitNanos;
+	private long pickupNanos;
+	private long travelNanos;
+	private volatile boolean cancelled = false;
+	private volatile CompletableFuture<Void> currentTimerPhase;
+	private volatile CompletableFuture<Driver> driverRequest;
+	/**
+	 * The waiting booking this booking's driver is reserved for once it drops the passenger off
+	 */
+	private volatile DriverWaiter nextBooking;
 
 	/**
 	 * Creates a new booking for a given Nuber dispatch and passenger, noting that no
@@ -39,10 +63,42 @@ public class Booking {
 	 * @param passenger
 	 */
 	public Booking(NuberDispatch dispatch, Passenger passenger)
+	{
+		this(dispatch, passenger, BookingPriority.NORMAL);
+	}
+	
+	/**
+	 * Creates a new booking with the given priority, which decides how soon the region starts
+	 * it, and how soon dispatch gives it a driver, compared with other waiting bookings.
+	 * 
+	 * @param dispatch
+	 * @param passenger
+	 * @param priority
+	 */
+	public Booking(NuberDispatch dispatch, Passenger passenger, BookingPriority priority)
+	{
+		this(dispatch, passenger, priority, dispatch.getConfig().maxDriverWaitMillis);
+	}
+	
+	/**
+	 * Creates a new booking with the given priority, that gives up if it has to wait longer
+	 * than maxDriverWaitMillis for a driver.
+	 * 
+	 * @param dispatch
+	 * @param passenger
+	 * @param priority
+	 * @param maxDriverWaitMillis The longest the booking waits for a driver, or 0 to wait for as long as it takes
+	 */
+	public Booking(NuberDispatch dispatch, Passenger passenger, BookingPriority priority, long maxDriverWaitMillis)
 	{
 		this.jobID = globalJobID.incrementAndGet();
 		this.dispatch = dispatch;
 		this.passenger = passenger;
+		this.priority = priority;
+		this.maxDriverWaitMillis = maxDriverWaitMillis;
+		this.clock = dispatch.getConfig().clock;
+		this.createdNanos = clock.nanoTime();
+		this.startedNanos = createdNanos;
 	}
 	
 	/**
@@ -58,42 +114,377 @@ public class Booking {
 	 * 6.	The driver, now free, is added back into Dispatches list of available drivers. 
 	 * 7.	The call() function the returns a BookingResult object, passing in the appropriate 
 	 * 			information required in the BookingResult constructor.
+	 * 
+	 * When ride pooling is on, the booking first tries to join a shared ride that is on its way
+	 * to a nearby passenger going somewhere nearby, and only asks for a driver of its own if
+	 * there is none. A booking that gets a driver opens its own shared ride for others to join.
+	 * 
+	 * If the booking has a maximum driver wait and no driver becomes available in time, it
+	 * stops at step 2 and returns a BookingResult with the status EXPIRED. If the thread is 
+	 * interrupted because the booking was cancelled, it stops where it is, hands any driver 
+	 * straight back to dispatch, and returns a BookingResult with the status CANCELLED.
 	 *
 	 * @return A BookingResult containing the final information about the booking 
 	 */
 	public BookingResult call() {
 		// step 1 & 2
 		dispatch.logEvent(this, "starts, asks for driver");
-		driver = dispatch.getDriver();
+		SharedRide ride = dispatch.joinSharedRide(this);
+		if (ride != null) {
+			BookingResult result = rideAlong(ride);
+			if (result != null) {
+				return result;
+			}
+			dispatch.logEvent(this, "shared ride was abandoned, asks for driver");
+		}
+		Driver assignedDriver = dispatch.getDriver(regionName, passenger, priority, maxDriverWaitMillis, TimeUnit.MILLISECONDS);
+		return call(assignedDriver, clock.nanoTime() - startedNanos, true);
+	}
+	
+	/**
+	 * Carries on from step 3 of call(), with a driver dispatch has already handed to the 
+	 * booking, used when the region waits for the driver without holding a thread. Bookings
+	 * started this way never look for a shared ride, so none is opened for them either.
+	 * 
+	 * @param assignedDriver The booking's driver, or null if none came up in time or the 
+	 * 			booking was cancelled while waiting
+	 * @param driverWaitNanos How long the booking waited for the driver
+	 * @return A BookingResult containing the final information about the booking 
+	 */
+	BookingResult call(Driver assignedDriver, long driverWaitNanos) {
+		return call(assignedDriver, driverWaitNanos, false);
+	}
+	
+	/**
+	 * Carries on from step 3 of call()
+	 * 
+	 * @param shareRide Whether to open a shared ride that other bookings can join
+	 */
+	private BookingResult call(Driver assignedDriver, long driverWaitNanos, boolean shareRide) {
+		driver = assignedDriver;
+		this.driverWaitNanos = driverWaitNanos;
+		if (driver == null) {
+			return gaveUpWaiting();
+		}
 		dispatch.logEvent(this, "has a driver");
+		BookingEvents.driverAcquired(this, driver, driverWaitNanos);
 		
-		
-		long startTime = new Date().getTime();
-		long duration = 0;
+		// other bookings may share the driver until the passenger is picked up
+		SharedRide ride = shareRide ? dispatch.openSharedRide(this, driver) : null;
+		// pickup starts where the driver wait ended, so no time falls between the phases
+		long startTime = startedNanos + driverWaitNanos;
 		try {
 			// step 3
 			dispatch.logEvent(this, "is picking up passenger");
 			driver.pickUpPassenger(passenger);
+			long pickedUpTime = clock.nanoTime();
+			pickupNanos = pickedUpTime - startTime;
 			dispatch.logEvent(this, "has picked up passenger");
+			BookingEvents.pickupDone(this, driver, pickupNanos);
 			
 			// step 4
 			dispatch.logEvent(this, "is traveling");
-			driver.driveToDestination();
+			nextBooking = dispatch.reserveNextBooking(regionName);
+			long endTime;
+			if (ride != null) {
+				endTime = ride.carryPassengers();
+			} else {
+				driver.driveToDestination();
+				endTime = clock.nanoTime();
+			}
 			
 			// step 5
-			long endTime = System.currentTimeMillis();
-			duration = endTime - startTime;
-			dispatch.logEvent(this, "is at destination, using " + duration + " ms");
+			travelNanos = endTime - pickedUpTime;
+			dispatch.logEvent(this, "is at destination, using " + TimeUnit.NANOSECONDS.toMillis(endTime - startTime) + " ms");
 		} catch (InterruptedException e) {
-			e.printStackTrace();
+			// cancelled mid trip, so the driver goes straight back
+			if (ride != null) {
+				ride.abandon();
+			}
+			dispatch.logEvent(this, "was cancelled, driver is idle now");
+			dispatch.finishTrip(driver, regionName, nextBooking);
+			return result(BookingStatus.CANCELLED);
 		}
 		
 		// step 6
 		dispatch.logEvent(this, "driver finished task and is idle now");
-		dispatch.addDriver(driver);
+		dispatch.finishTrip(driver, regionName, nextBooking);
 		
 		// step 7
-		return new BookingResult(jobID, passenger, driver, duration);
+		return result(BookingStatus.COMPLETED);
+	}
+	
+	/**
+	 * The non-blocking version of call(), used when the dispatch runs in TripMode.TIMER.
+	 * 
+	 * It goes through the same steps as call(), but instead of the thread pausing during 
+	 * pickup and travel, each phase is scheduled on the given timer and the booking carries on
+	 * as a callback once it expires. The calling thread is only held while waiting for a driver.
+	 * 
+	 * @param timer The timer that pickup and travel are scheduled on
+	 * @return A future for the BookingResult, completed on the timer thread at the destination
+	 */
+	public CompletableFuture<BookingResult> callAsync(HashedWheelTimer timer) {
+		// step 1 & 2
+		dispatch.logEvent(this, "starts, asks for driver");
+		Driver assignedDriver = dispatch.getDriver(regionName, passenger, priority, maxDriverWaitMillis, TimeUnit.MILLISECONDS);
+		return callAsync(timer, assignedDriver, clock.nanoTime() - startedNanos);
+	}
+	
+	/**
+	 * Carries on from step 3 of callAsync(), with a driver dispatch has already handed to the booking
+	 * 
+	 * @param timer The timer that pickup and travel are scheduled on
+	 * @param assignedDriver The booking's driver, or null if none came up in time or the 
+	 * 			booking was cancelled while waiting
+	 * @param driverWaitNanos How long the booking waited for the driver
+	 * @return A future for the BookingResult, completed on the timer thread at the destination
+	 */
+	CompletableFuture<BookingResult> callAsync(HashedWheelTimer timer, Driver assignedDriver, long driverWaitNanos) {
+		driver = assignedDriver;
+		this.driverWaitNanos = driverWaitNanos;
+		if (driver == null) {
+			return CompletableFuture.completedFuture(gaveUpWaiting());
+		}
+		dispatch.logEvent(this, "has a driver");
+		BookingEvents.driverAcquired(this, driver, driverWaitNanos);
+		
+		long startTime = startedNanos + driverWaitNanos;
+		
+		// step 3
+		dispatch.logEvent(this, "is picking up passenger");
+		return trackTimerPhase(driver.pickUpPassenger(passenger, timer)).thenCompose(pickedUp -> {
+			pickupNanos = clock.nanoTime() - startTime;
+			dispatch.logEvent(this, "has picked up passenger");
+			BookingEvents.pickupDone(this, driver, pickupNanos);
+			
+			// step 4
+			dispatch.logEvent(this, "is traveling");
+			nextBooking = dispatch.reserveNextBooking(regionName);
+			return trackTimerPhase(driver.driveToDestination(timer));
+		}).handle((arrived, error) -> {
+			if (cancelled) {
+				dispatch.logEvent(this, "was cancelled, driver is idle now");
+				dispatch.finishTrip(driver, regionName, nextBooking);
+				return result(BookingStatus.CANCELLED);
+			}
+			
+			// step 5
+			long endTime = clock.nanoTime();
+			travelNanos = endTime - startTime - pickupNanos;
+			if (error == null) {
+				dispatch.logEvent(this, "is at destination, using " + TimeUnit.NANOSECONDS.toMillis(endTime - startTime) + " ms");
+			}
+			
+			// step 6
+			dispatch.logEvent(this, "driver finished task and is idle now");
+			dispatch.finishTrip(driver, regionName, nextBooking);
+			
+			if (error != null) {
+				throw new IllegalStateException("Booking " + jobID + " did not finish its trip", error);
+			}
+			
+			// step 7
+			return result(BookingStatus.COMPLETED);
+		});
+	}
+	
+	/**
+	 * Rides along in another booking's shared ride until the passenger is dropped off
+	 * 
+	 * @return The booking's result, or null if the ride was abandoned and the booking needs 
+	 * 			a driver of its own
+	 */
+	private BookingResult rideAlong(SharedRide ride)
+	{
+		driver = ride.driver;
+		dispatch.logEvent(this, "is sharing a ride");
+		try {
+			BookingResult result = ride.resultFor(this).get();
+			if (result == null) {
+				driver = null;
+			}
+			return result;
+		} catch (InterruptedException e) {
+			ride.leave(this);
+			dispatch.logEvent(this, "was cancelled while sharing a ride");
+			return result(BookingStatus.CANCELLED);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Builds the result for a booking that stopped waiting without getting a driver, either
+	 * because its maximum wait passed, or because it was cancelled
+	 */
+	private BookingResult gaveUpWaiting()
+	{
+		if (cancelled || Thread.currentThread().isInterrupted()) {
+			dispatch.logEvent(this, "was cancelled while waiting for a driver");
+			return result(BookingStatus.CANCELLED);
+		}
+		dispatch.logEvent(this, "gave up waiting for a driver");
+		return result(BookingStatus.EXPIRED);
+	}
+	
+	/**
+	 * Builds the result for a booking that has just finished, with how long each phase took.
+	 * The trip duration is only given for a completed trip.
+	 */
+	private BookingResult result(BookingStatus status)
+	{
+		long tripDuration = status == BookingStatus.COMPLETED ? TimeUnit.NANOSECONDS.toMillis(pickupNanos + travelNanos) : 0;
+		BookingResult result = new BookingResult(jobID, passenger, driver, tripDuration, status);
+		result.queueWaitNanos = queueWaitNanos;
+		result.driverWaitNanos = driverWaitNanos;
+		result.pickupNanos = pickupNanos;
+		result.travelNanos = travelNanos;
+		result.totalNanos = clock.nanoTime() - createdNanos;
+		BookingEvents.tripDone(this, result);
+		return result;
+	}
+	
+	/**
+	 * Builds the result for a booking that shared another booking's ride, once its passenger 
+	 * has been dropped off
+	 * 
+	 * @param joinedAt When the booking joined the ride
+	 * @param pickedUpAt When its passenger was picked up
+	 * @param droppedOffAt When its passenger was dropped off
+	 */
+	BookingResult sharedRideResult(Driver driver, long joinedAt, long pickedUpAt, long droppedOffAt)
+	{
+		this.driver = driver;
+		pickupNanos = pickedUpAt - joinedAt;
+		travelNanos = droppedOffAt - pickedUpAt;
+		return result(BookingStatus.COMPLETED);
+	}
+	
+	/**
+	 * Remembers the timer event the booking is waiting on, so that cancel() can cut it short
+	 */
+	private CompletableFuture<Void> trackTimerPhase(CompletableFuture<Void> phase)
+	{
+		currentTimerPhase = phase;
+		// cancel() may have run before we stored the phase
+		if (cancelled) {
+			phase.cancel(false);
+		}
+		return phase;
+	}
+	
+	/**
+	 * Stops a booking in TripMode.TIMER at whatever phase it has reached. The trip's pending 
+	 * timer event is cut short, and the booking hands its driver straight back to dispatch.
+	 * 
+	 * A booking running in TripMode.BLOCKING is stopped by interrupting its thread instead, 
+	 * which the BookingFuture does when cancelled. A booking whose region is waiting for its
+	 * driver without a thread is withdrawn from dispatch's waiters.
+	 */
+	void cancel()
+	{
+		cancelled = true;
+		CompletableFuture<Driver> request = driverRequest;
+		if (request != null) {
+			request.cancel(false);
+		}
+		CompletableFuture<Void> phase = currentTimerPhase;
+		if (phase != null) {
+			phase.cancel(false);
+		}
+	}
+	
+	/**
+	 * Remembers the request the region made to dispatch for the booking's driver, so that 
+	 * cancel() can withdraw the booking from dispatch's waiters
+	 */
+	void setDriverRequest(CompletableFuture<Driver> request)
+	{
+		driverRequest = request;
+		// cancel() may have run before we stored the request
+		if (cancelled) {
+			request.cancel(false);
+		}
+	}
+	
+	/**
+	 * @return The booking's unique, sequential ID
+	 */
+	int getJobID()
+	{
+		return jobID;
+	}
+	
+	/**
+	 * @return The name of the region running the booking, or null if it has not been queued yet
+	 */
+	String getRegionName()
+	{
+		return regionName;
+	}
+	
+	void setRegionName(String regionName)
+	{
+		this.regionName = regionName;
+	}
+	
+	/**
+	 * @return The passenger the booking is for
+	 */
+	public Passenger getPassenger()
+	{
+		return passenger;
+	}
+	
+	/**
+	 * @return How urgently the booking should be served
+	 */
+	public BookingPriority getPriority()
+	{
+		return priority;
+	}
+	
+	/**
+	 * @return The key the region orders this booking by while it is queued
+	 */
+	long getQueueOrderKey()
+	{
+		return queueOrderKey;
+	}
+	
+	void setQueueOrderKey(long queueOrderKey)
+	{
+		this.queueOrderKey = queueOrderKey;
+	}
+	
+	/**
+	 * Called by the region when the booking leaves its queue, ending the queue wait. The wait
+	 * for a driver is counted from the same moment, so the booking's phases add up to its total.
+	 * 
+	 * @param startedNanos When the booking left the queue, on the booking's clock
+	 */
+	void markStarted(long startedNanos)
+	{
+		this.startedNanos = startedNanos;
+		queueWaitNanos = startedNanos - createdNanos;
+		BookingEvents.started(this, queueWaitNanos);
+	}
+	
+	/**
+	 * @return The longest the booking waits for a driver, or 0 to wait for as long as it takes
+	 */
+	long getMaxDriverWaitMillis()
+	{
+		return maxDriverWaitMillis;
+	}
+	
+	/**
+	 * @return How long the booking waited for dispatch to give it a driver
+	 */
+	long getDriverWaitNanos()
+	{
+		return driverWaitNanos;
 	}
 	
 	/***
@@ -0,0 +1,215 @@
+package nuber.students;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events for the booking lifecycle, so booking latency can be lined up
+ * with GC and thread park events in the same recording.
+ *
+ * Every event carries the booking's job ID, region and driver. The events are disabled by
+ * default, and turned on in a recording's settings, for example with
+ * 		-XX:StartFlightRecording:settings=profile,+nuber.BookingCreated#enabled=true
+ * or in JDK Mission Control. While an event is disabled, recording it costs no more than
+ * checking a flag on an object the JIT can usually keep off the heap.
+ */
+final class BookingEvents {
+
+	private BookingEvents()
+	{
+	}
+
+	@Name("nuber.BookingCreated")
+	@Label("Booking Created")
+	@Category({ "Nuber", "Booking" })
+	@Description("A region created a booking for a passenger")
+	@Enabled(false)
+	@StackTrace(false)
+	static class Created extends Event {
+		@Label("Job ID")
+		int jobID;
+		@Label("Region")
+		String region;
+		@Label("Driver")
+		String driver;
+	}
+
+	@Name("nuber.BookingStarted")
+	@Label("Booking Queued To Started")
+	@Category({ "Nuber", "Booking" })
+	@Description("A booking left its region's queue and started")
+	@Enabled(false)
+	@StackTrace(false)
+	static class Started extends Event {
+		@Label("Job ID")
+		int jobID;
+		@Label("Region")
+		String region;
+		@Label("Driver")
+		String driver;
+		@Label("Queue Wait")
+		@Timespan(Timespan.NANOSECONDS)
+		long queueWait;
+	}
+
+	@Name("nuber.DriverAcquired")
+	@Label("Driver Acquired")
+	@Category({ "Nuber", "Booking" })
+	@Description("Dispatch gave a booking its driver")
+	@Enabled(false)
+	@StackTrace(false)
+	static class DriverAcquired extends Event {
+		@Label("Job ID")
+		int jobID;
+		@Label("Region")
+		String region;
+		@Label("Driver")
+		String driver;
+		@Label("Driver Wait")
+		@Timespan(Timespan.NANOSECONDS)
+		long driverWait;
+	}
+
+	@Name("nuber.PickupDone")
+	@Label("Pickup Done")
+	@Category({ "Nuber", "Booking" })
+	@Description("A booking's driver picked its passenger up")
+	@Enabled(false)
+	@StackTrace(false)
+	static class PickupDone extends Event {
+		@Label("Job ID")
+		int jobID;
+		@Label("Region")
+		String region;
+		@Label("Driver")
+		String driver;
+		@Label("Pickup")
+		@Timespan(Timespan.NANOSECONDS)
+		long pickup;
+	}
+
+	@Name("nuber.TripDone")
+	@Label("Trip Done")
+	@Category({ "Nuber", "Booking" })
+	@Description("A booking finished, whether completed, expired or cancelled")
+	@Enabled(false)
+	@StackTrace(false)
+	static class TripDone extends Event {
+		@Label("Job ID")
+		int jobID;
+		@Label("Region")
+		String region;
+		@Label("Driver")
+		String driver;
+		@Label("Status")
+		String status;
+		@Label("Travel")
+		@Timespan(Timespan.NANOSECONDS)
+		long travel;
+		@Label("Total")
+		@Timespan(Timespan.NANOSECONDS)
+		long total;
+	}
+
+	@Name("nuber.BookingRejected")
+	@Label("Booking Rejected")
+	@Category({ "Nuber", "Booking" })
+	@Description("A booking was not accepted, or was dropped before it started. The job ID is 0 if it was rejected before a booking was made.")
+	@Enabled(false)
+	@StackTrace(false)
+	static class Rejected extends Event {
+		@Label("Job ID")
+		int jobID;
+		@Label("Region")
+		String region;
+		@Label("Driver")
+		String driver;
+		@Label("Reason")
+		String reason;
+	}
+
+	static void created(Booking booking, String region)
+	{
+		Created event = new Created();
+		if (event.isEnabled()) {
+			event.jobID = booking.getJobID();
+			event.region = region;
+			event.commit();
+		}
+	}
+
+	static void started(Booking booking, long queueWaitNanos)
+	{
+		Started event = new Started();
+		if (event.isEnabled()) {
+			event.jobID = booking.getJobID();
+			event.region = booking.getRegionName();
+			event.queueWait = queueWaitNanos;
+			event.commit();
+		}
+	}
+
+	static void driverAcquired(Booking booking, Driver driver, long driverWaitNanos)
+	{
+		DriverAcquired event = new DriverAcquired();
+		if (event.isEnabled()) {
+			event.jobID = booking.getJobID();
+			event.region = booking.getRegionName();
+			event.driver = driver.name;
+			event.driverWait = driverWaitNanos;
+			event.commit();
+		}
+	}
+
+	static void pickupDone(Booking booking, Driver driver, long pickupNanos)
+	{
+		PickupDone event = new PickupDone();
+		if (event.isEnabled()) {
+			event.jobID = booking.getJobID();
+			event.region = booking.getRegionName();
+			event.driver = driver.name;
+			event.pickup = pickupNanos;
+			event.commit();
+		}
+	}
+
+	static void tripDone(Booking booking, BookingResult result)
+	{
+		TripDone event = new TripDone();
+		if (event.isEnabled()) {
+			event.jobID = booking.getJobID();
+			event.region = booking.getRegionName();
+			event.driver = result.driver == null ? null : result.driver.name;
+			event.status = result.status.name();
+			event.travel = result.travelNanos;
+			event.total = result.totalNanos;
+			event.commit();
+		}
+	}
+
+	static void rejected(Booking booking, String region, RejectionReason reason)
+	{
+		rejected(booking.getJobID(), region, reason);
+	}
+
+	/**
+	 * @param jobID The booking's job ID, or 0 if it was rejected before a booking was made
+	 */
+	static void rejected(int jobID, String region, RejectionReason reason)
+	{
+		Rejected event = new Rejected();
+		if (event.isEnabled()) {
+			event.jobID = jobID;
+			event.region = region;
+			event.reason = reason.name();
+			event.commit();
+		}
+	}
+
+}
@@ -0,0 +1,84 @@
+package nuber.students;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The future handed back for a booking made through a NuberRegion.
+ * 
+ * It is completed by the region when the booking finishes. Unlike a plain CompletableFuture,
+ * cancelling it stops the booking itself at whatever phase it has reached: a queued booking
+ * leaves its region's queue, and with mayInterruptIfRunning an active booking has its thread
+ * interrupted or its trip timer cut short, so that its driver goes straight back to dispatch.
+ */
+class BookingFuture extends CompletableFuture<BookingResult> {
+	
+	final Booking booking;
+	private final NuberRegion region;
+	private final AtomicBoolean dequeued = new AtomicBoolean(false);
+	private Thread runner;
+	
+	BookingFuture(Booking booking, NuberRegion region)
+	{
+		this.booking = booking;
+		this.region = region;
+	}
+	
+	/**
+	 * Marks the booking as having left its region's queue, whether by starting, being 
+	 * cancelled, shed or drained. Only the first caller gets true, so the queue's counts 
+	 * are only ever adjusted once per booking.
+	 * 
+	 * @return true if this call took the booking out of the queue
+	 */
+	boolean markDequeued()
+	{
+		return dequeued.compareAndSet(false, true);
+	}
+	
+	/**
+	 * Records the thread that is about to run blocking parts of the booking
+	 * 
+	 * @return false if the booking was cancelled before it could start
+	 */
+	synchronized boolean beginRunning()
+	{
+		if (isDone()) {
+			return false;
+		}
+		runner = Thread.currentThread();
+		return true;
+	}
+	
+	/**
+	 * Clears the running thread, and any interrupt that a cancel aimed at this booking
+	 * may have left on it, so it cannot leak into whatever the thread runs next
+	 */
+	void endRunning()
+	{
+		synchronized (this) {
+			runner = null;
+		}
+		Thread.interrupted();
+	}
+	
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning)
+	{
+		boolean cancelled = super.cancel(mayInterruptIfRunning);
+		if (!cancelled) {
+			return false;
+		}
+		region.bookingCancelled(this);
+		if (mayInterruptIfRunning) {
+			booking.cancel();
+			synchronized (this) {
+				if (runner != null) {
+					runner.interrupt();
+				}
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,42 @@
+package nuber.students;
+
+/**
+ * How urgently a booking should be served compared with other bookings.
+ * 
+ * Higher priorities are started by their region, and handed drivers by dispatch, ahead of
+ * lower ones. To stop low priority bookings from starving, priorities are turned into an 
+ * ordering key with aging: every level of priority is worth a fixed amount of waiting time,
+ * so once a low priority booking has waited long enough, it is served before newer bookings
+ * of a higher priority.
+ */
+public enum BookingPriority {
+
+	LOW(0),
+	NORMAL(1),
+	HIGH(2),
+	URGENT(3);
+
+	private final int rank;
+
+	private BookingPriority(int rank)
+	{
+		this.rank = rank;
+	}
+
+	/**
+	 * Gets the key used to order waiting bookings, where smaller keys are served first.
+	 * 
+	 * A booking is ordered as if it had started waiting agingNanos earlier for each level
+	 * of priority it has, so keys never change while waiting and a plain priority queue can
+	 * be used.
+	 * 
+	 * @param waitStartNanos When the booking started waiting, on the dispatch's clock
+	 * @param agingNanos How much waiting one level of priority is worth
+	 * @return The ordering key
+	 */
+	public long orderKey(long waitStartNanos, long agingNanos)
+	{
+		return waitStartNanos - rank * agingNanos;
+	}
+
+}
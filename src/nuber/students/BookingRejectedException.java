@@ -0,0 +1,28 @@
+package nuber.students;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Completes the future of a booking that dispatch or a region refused to run.
+ */
+public class BookingRejectedException extends RejectedExecutionException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final RejectionReason reason;
+
+	public BookingRejectedException(RejectionReason reason, String message)
+	{
+		super(message);
+		this.reason = reason;
+	}
+
+	/**
+	 * @return Why the booking was rejected
+	 */
+	public RejectionReason getReason()
+	{
+		return reason;
+	}
+
+}
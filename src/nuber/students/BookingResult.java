@@ -6,13 +6,40 @@ public class BookingResult {
 	public Passenger passenger;
 	public Driver driver;
 	public long tripDuration;
+	public BookingStatus status;
+	/**
+	 * How long the booking waited in its region's queue for a free position
+	 */
+	public long queueWaitNanos;
+	/**
+	 * How long the booking waited for dispatch to give it a driver
+	 */
+	public long driverWaitNanos;
+	/**
+	 * How long the driver took to pick the passenger up
+	 */
+	public long pickupNanos;
+	/**
+	 * How long the passenger spent travelling to their destination
+	 */
+	public long travelNanos;
+	/**
+	 * The time from the booking being created to it finishing
+	 */
+	public long totalNanos;
 	
 	public BookingResult(int jobID, Passenger passenger, Driver driver, long tripDuration)
+	{
+		this(jobID, passenger, driver, tripDuration, BookingStatus.COMPLETED);
+	}
+	
+	public BookingResult(int jobID, Passenger passenger, Driver driver, long tripDuration, BookingStatus status)
 	{
 		this.jobID = jobID;
 		this.passenger = passenger;
 		this.driver = driver;
 		this.tripDuration = tripDuration;
+		this.status = status;
 	}
 	
 }
@@ -0,0 +1,22 @@
+package nuber.students;
+
+/**
+ * How a booking that ran to the end finished
+ */
+public enum BookingStatus {
+
+	/**
+	 * The passenger was driven to their destination
+	 */
+	COMPLETED,
+
+	/**
+	 * No driver became available within the booking's maximum wait, so the booking gave up
+	 */
+	EXPIRED,
+
+	/**
+	 * The booking was cancelled before the passenger reached their destination
+	 */
+	CANCELLED
+}
@@ -0,0 +1,51 @@
+package nuber.students;
+
+/**
+ * Decides how many bookings a NuberRegion may have active at once.
+ * 
+ * A region takes a permit with tryAcquire() before starting a booking, and gives it back 
+ * when the booking finishes, reporting how the booking went so that adaptive limiters can
+ * move the limit.
+ */
+public interface ConcurrencyLimiter {
+
+	/**
+	 * Takes a permit if fewer bookings than the current limit are active
+	 * 
+	 * @return true if a permit was taken
+	 */
+	boolean tryAcquire();
+
+	/**
+	 * Gives back a permit without any measurements, such as for a booking that never ran
+	 */
+	void release();
+
+	/**
+	 * Gives back the permit of a finished booking, along with how long it spent waiting for a 
+	 * driver and how long it took in total from starting to finishing
+	 * 
+	 * @param driverWaitNanos Time the booking spent waiting for dispatch to give it a driver
+	 * @param latencyNanos Time from the booking starting in the region to it finishing
+	 */
+	void release(long driverWaitNanos, long latencyNanos);
+
+	/**
+	 * @return The number of bookings that may currently be active
+	 */
+	int getLimit();
+
+	/**
+	 * @return The number of permits currently taken
+	 */
+	int getInFlight();
+
+	/**
+	 * Changes the most bookings the limiter will allow at once, while the region is running.
+	 * Bookings already holding a permit keep it, even if the limit drops below their number.
+	 * 
+	 * @param maxLimit The new maximum, at least 1
+	 */
+	void setMaxLimit(int maxLimit);
+
+}
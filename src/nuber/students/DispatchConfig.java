@@ -0,0 +1,216 @@
+package nuber.students;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Optional settings for a NuberDispatch and the regions it creates.
+ *
+ * The defaults keep the original threading and queueing: a fixed pool of threads per region,
+ * trips that block their thread, no limit on a region's queue and no limit on how long a
+ * booking waits for a driver. Trips are no longer timed at random, though. Pickup and travel
+ * take time in proportion to the distance driven, whatever the config.
+ */
+public class DispatchConfig {
+
+	/**
+	 * How regions run their bookings, unless overridden in regionExecutionModes
+	 */
+	public RegionExecutionMode executionMode = RegionExecutionMode.FIXED_POOL;
+
+	/**
+	 * Per region overrides of executionMode, keyed by region name
+	 */
+	public HashMap<String, RegionExecutionMode> regionExecutionModes = new HashMap<String, RegionExecutionMode>();
+
+	/**
+	 * Whether pickup and travel sleep the booking's thread, or are scheduled on a timer
+	 */
+	public TripMode tripMode = TripMode.BLOCKING;
+	
+	/**
+	 * Whether regions adapt their concurrency limit with an AimdLimiter, using their 
+	 * maxSimultaneousJobs as the ceiling, rather than always allowing maxSimultaneousJobs
+	 */
+	public boolean adaptiveConcurrency = false;
+	
+	/**
+	 * How many milliseconds of waiting make up for one level of BookingPriority, so that low 
+	 * priority bookings cannot be starved by a steady stream of higher priority ones
+	 */
+	public long priorityAgingMillis = 1000;
+	
+	/**
+	 * The most bookings each region will hold waiting to start, or 0 for no limit
+	 */
+	public int regionQueueCapacity = 0;
+	
+	/**
+	 * What a region does with a new booking when it already holds regionQueueCapacity waiting bookings
+	 */
+	public OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+	
+	/**
+	 * How long a caller may be blocked waiting for room in a region's queue under OverflowPolicy.BLOCK
+	 */
+	public long admissionTimeoutMillis = 1000;
+	
+	/**
+	 * The regions next to each region, keyed by region name, in the order they should be tried
+	 */
+	public HashMap<String, List<String>> neighbours = new HashMap<String, List<String>>();
+	
+	/**
+	 * How often drain() reports its progress
+	 */
+	public long drainProgressIntervalMillis = 1000;
+	
+	/**
+	 * The longest a booking waits for a driver before it expires, unless the booking sets its 
+	 * own maximum, or 0 to wait for as long as it takes
+	 */
+	public long maxDriverWaitMillis = 0;
+
+	/**
+	 * Which idle driver each booking is given, which also decides the kind of pool the
+	 * dispatch keeps its idle drivers in. Either one of the DriverPoolType values, or a 
+	 * custom policy.
+	 */
+	public DriverSelectionPolicy driverSelectionPolicy = DriverPoolType.ELASTIC;
+
+	/**
+	 * The most idle drivers the dispatch can hold at once, or each region can hold when
+	 * regionalDriverPools is set, or 0 for no limit. The BLOCKING_QUEUE and LOCK_FREE_RING 
+	 * pools set aside room for all of their drivers up front, so they always need a limit, 
+	 * and use NuberDispatch.MAX_DRIVERS when none is set. ELASTIC pools never have a limit.
+	 */
+	public int driverPoolCapacity = 0;
+
+	/**
+	 * How many cells the city is divided into along each side when driverSelectionPolicy is 
+	 * SPATIAL_GRID. More cells make each nearest driver search look at fewer drivers.
+	 */
+	public int spatialGridCells = 32;
+
+	/**
+	 * How many shards the pool is split into when driverSelectionPolicy is POWER_OF_TWO_CHOICES
+	 */
+	public int driverPoolShards = 8;
+
+	/**
+	 * Whether each region keeps its own pool of idle drivers, taking drivers from its neighbours,
+	 * then from the regions with the most idle drivers, when its own pool is empty
+	 */
+	public boolean regionalDriverPools = false;
+
+	/**
+	 * How long waiting bookings and idle drivers are collected before they are matched 
+	 * together with the lowest total pickup time, or 0 to give each booking a driver as soon 
+	 * as it asks for one
+	 */
+	public long batchMatchingWindowMillis = 0;
+
+	/**
+	 * Whether regions ask dispatch for a booking's driver without holding a thread while the
+	 * booking waits, and only run the booking on a thread once it has been handed its driver
+	 */
+	public boolean asyncDriverHandoff = false;
+
+	/**
+	 * The most passengers a driver carries at once. Above 1, bookings made close together in 
+	 * time, going from and to nearby places, share rides. Ride sharing only happens in 
+	 * TripMode.BLOCKING, between bookings that ask for their own driver, so not with 
+	 * asyncDriverHandoff.
+	 */
+	public int rideCapacity = 1;
+
+	/**
+	 * How far a passenger's pickup point and destination may each be from those of the 
+	 * passenger a shared ride was opened for, for the passenger to join the ride
+	 */
+	public double poolingMaxDistance = 0.1;
+
+	/**
+	 * Whether a driver that is on the way to a passenger's destination is reserved for the 
+	 * booking that has waited longest for a driver in the same region, so the driver goes 
+	 * straight on to it at drop off instead of going back to the idle drivers. Not used with 
+	 * batch matching, which decides itself which booking each driver goes to.
+	 */
+	public boolean tripChaining = false;
+
+	/**
+	 * How often a DriverRebalancer samples each region's backlog of queued bookings and 
+	 * bookings waiting for a driver, to steer freed drivers towards the regions with the most 
+	 * demand, or 0 to hand freed drivers out strictly in priority order. Not used with batch 
+	 * matching.
+	 */
+	public long rebalanceIntervalMillis = 0;
+
+	/**
+	 * How far above an even split a region's share of the total backlog must be before freed
+	 * drivers are steered towards it, and how far the shares must move before they are 
+	 * updated, between 0 and 1
+	 */
+	public double rebalanceHysteresis = 0.1;
+
+	/**
+	 * Whether the dispatch and each of its regions are registered as MXBeans with the platform
+	 * MBean server, so they can be watched and adjusted while running, for example from JConsole.
+	 * They are removed again once every region has finished.
+	 */
+	public boolean jmxEnabled = false;
+
+	/**
+	 * The clock that bookings, drivers and timers measure and wait out time on. A ScaledClock
+	 * runs the whole simulation faster than real time, and a ManualClock lets a test move time
+	 * on by hand. Booking maximum driver waits and priority aging are measured on it too.
+	 */
+	public NuberClock clock = NuberClock.SYSTEM;
+
+	/**
+	 * Creates the pool the dispatch keeps its idle drivers in
+	 *
+	 * @return A new, empty driver pool
+	 */
+	public DriverPool createDriverPool()
+	{
+		return driverSelectionPolicy.createPool(this);
+	}
+
+	/**
+	 * Gets the execution mode a given region should use
+	 *
+	 * @param regionName The name of the region
+	 * @return The region's override if one is set, otherwise the dispatch wide mode
+	 */
+	public RegionExecutionMode executionModeFor(String regionName)
+	{
+		return regionExecutionModes.getOrDefault(regionName, executionMode);
+	}
+	
+	/**
+	 * Gets the neighbours of a region
+	 * 
+	 * @param regionName The name of the region
+	 * @return The names of the regions next to it, which may be empty
+	 */
+	public List<String> neighboursOf(String regionName)
+	{
+		return neighbours.getOrDefault(regionName, List.of());
+	}
+	
+	/**
+	 * Creates the limiter a region should use to decide how many of its bookings can be active
+	 * 
+	 * @param maxSimultaneousJobs The region's configured maximum simultaneous bookings
+	 * @return A new limiter for the region
+	 */
+	public ConcurrencyLimiter createLimiter(int maxSimultaneousJobs)
+	{
+		if (adaptiveConcurrency) {
+			return new AimdLimiter(maxSimultaneousJobs, 1, maxSimultaneousJobs);
+		}
+		return new FixedLimiter(maxSimultaneousJobs);
+	}
+
+}
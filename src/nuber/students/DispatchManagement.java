@@ -0,0 +1,116 @@
+package nuber.students;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Exposes a NuberDispatch through JMX, as a NuberDispatchMXBean
+ */
+class DispatchManagement implements NuberDispatchMXBean {
+
+	private final NuberDispatch dispatch;
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+
+	DispatchManagement(NuberDispatch dispatch)
+	{
+		this.dispatch = dispatch;
+	}
+
+	@Override
+	public int getIdleDrivers()
+	{
+		return dispatch.getIdleDrivers();
+	}
+
+	@Override
+	public int getBookingsAwaitingDriver()
+	{
+		return dispatch.getBookingsAwaitingDriver();
+	}
+
+	@Override
+	public int getActiveBookings()
+	{
+		int active = 0;
+		for (NuberRegion region : dispatch.getRegions()) {
+			active += region.getActiveBookings();
+		}
+		return active;
+	}
+
+	@Override
+	public int getQueuedBookings()
+	{
+		int queued = 0;
+		for (NuberRegion region : dispatch.getRegions()) {
+			queued += region.getQueuedBookings();
+		}
+		return queued;
+	}
+
+	@Override
+	public long getCompletedBookings()
+	{
+		return dispatch.getCompletedBookings();
+	}
+
+	@Override
+	public long getExpiredBookings()
+	{
+		return dispatch.getExpiredBookings();
+	}
+
+	@Override
+	public double getLatencyP50Millis()
+	{
+		return dispatch.getLatencyPercentileMillis(50);
+	}
+
+	@Override
+	public double getLatencyP95Millis()
+	{
+		return dispatch.getLatencyPercentileMillis(95);
+	}
+
+	@Override
+	public double getLatencyP99Millis()
+	{
+		return dispatch.getLatencyPercentileMillis(99);
+	}
+
+	@Override
+	public boolean isDraining()
+	{
+		return draining.get();
+	}
+
+	@Override
+	public void setRegionConcurrency(String region, int maxSimultaneousJobs)
+	{
+		NuberRegion target = dispatch.getRegion(region);
+		if (target == null) {
+			throw new IllegalArgumentException("Dispatch has no region called " + region);
+		}
+		target.setMaxSimultaneousJobs(maxSimultaneousJobs);
+	}
+
+	@Override
+	public void drain(long timeoutMillis)
+	{
+		if (!draining.compareAndSet(false, true)) {
+			return;
+		}
+		Thread drainer = new Thread(() -> {
+			try {
+				dispatch.drain(timeoutMillis, TimeUnit.MILLISECONDS, null);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				draining.set(false);
+			}
+		}, "nuber-jmx-drain");
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+}
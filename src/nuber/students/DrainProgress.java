@@ -0,0 +1,45 @@
+package nuber.students;
+
+/**
+ * A snapshot of how far a NuberDispatch has got through draining its bookings
+ */
+public class DrainProgress {
+
+	/**
+	 * Bookings accepted by a region that have not yet started
+	 */
+	public final int queuedBookings;
+	/**
+	 * Bookings that have started but not yet finished
+	 */
+	public final int activeBookings;
+	/**
+	 * Regions that have finished all of their bookings
+	 */
+	public final int terminatedRegions;
+	/**
+	 * Time since the drain began
+	 */
+	public final long elapsedMillis;
+	/**
+	 * Time left before the drain is forced
+	 */
+	public final long remainingMillis;
+
+	public DrainProgress(int queuedBookings, int activeBookings, int terminatedRegions, long elapsedMillis, long remainingMillis)
+	{
+		this.queuedBookings = queuedBookings;
+		this.activeBookings = activeBookings;
+		this.terminatedRegions = terminatedRegions;
+		this.elapsedMillis = elapsedMillis;
+		this.remainingMillis = remainingMillis;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "queued: " + queuedBookings + ", active: " + activeBookings + ", regions done: " + terminatedRegions
+				+ ", elapsed: " + elapsedMillis + "ms, remaining: " + remainingMillis + "ms";
+	}
+
+}
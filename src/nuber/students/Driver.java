@@ -1,17 +1,42 @@
 package nuber.students;
 
+import java.util.concurrent.CompletableFuture;
+
 public class Driver extends Person {
 	
 	private  Passenger currentPassenger;
+	private volatile NuberClock clock = NuberClock.SYSTEM;
+	private volatile long joinedNanos = clock.nanoTime();
+	private volatile boolean busy = false;
+	private volatile long busySince;
+	private volatile long busyNanos = 0;
+	private boolean joined = false;
 	
+	/**
+	 * Creates a driver at a random location in the city
+	 */
 	public Driver(String driverName, int maxSleep)
 	{
 		super(driverName, maxSleep);
 	}
 	
+	/**
+	 * Creates a driver at the given location
+	 * 
+	 * @param driverName
+	 * @param maxSleep
+	 * @param x Between 0 and 1
+	 * @param y Between 0 and 1
+	 */
+	public Driver(String driverName, int maxSleep, double x, double y)
+	{
+		super(driverName, maxSleep, x, y);
+	}
+	
 	/**
 	 * Stores the provided passenger as the driver's current passenger and then
-	 * sleeps the thread for between 0-maxDelay milliseconds.
+	 * sleeps the thread for between 0-maxDelay milliseconds, in proportion to how far
+	 * away the passenger is. The driver ends up at the passenger's pickup point.
 	 * 
 	 * @param newPassenger Passenger to collect
 	 * @throws InterruptedException
@@ -19,19 +44,188 @@ public class Driver extends Person {
 	public void pickUpPassenger(Passenger newPassenger) throws InterruptedException
 	{
 		currentPassenger = newPassenger;
-		int pickupTime = (int)(Math.random() * maxSleep);
-		Thread.sleep(pickupTime);
+		int pickupTime = getPickupTime();
+		moveTo(newPassenger.getX(), newPassenger.getY());
+		clock.sleep(pickupTime);
 	}
 
 	/**
-	 * Sleeps the thread for the amount of time returned by the current 
-	 * passenger's getTravelTime() function
+	 * Sleeps the thread for between 0-maxDelay milliseconds, in proportion to the distance
+	 * from the driver to the current passenger's destination, the same way every leg of a 
+	 * shared ride is timed. The driver ends up at the passenger's destination.
 	 * 
 	 * @throws InterruptedException
 	 */
 	public void driveToDestination() throws InterruptedException {
-		int travelTime = currentPassenger.getTravelTime();
-		Thread.sleep(travelTime);
+		int travelTime = travelMillis();
+		moveTo(currentPassenger.getDestinationX(), currentPassenger.getDestinationY());
+		clock.sleep(travelTime);
+	}
+	
+	/**
+	 * Stores the provided passenger as the driver's current passenger, and schedules
+	 * the pickup on the given timer instead of sleeping the calling thread.
+	 * 
+	 * @param newPassenger Passenger to collect
+	 * @param timer The timer the pickup is scheduled on
+	 * @return A future that completes once the passenger has been picked up
+	 */
+	public CompletableFuture<Void> pickUpPassenger(Passenger newPassenger, HashedWheelTimer timer)
+	{
+		currentPassenger = newPassenger;
+		int pickupTime = getPickupTime();
+		moveTo(newPassenger.getX(), newPassenger.getY());
+		return timer.delay(pickupTime);
+	}
+	
+	/**
+	 * Schedules the trip to the current passenger's destination on the given timer,
+	 * instead of sleeping the calling thread.
+	 * 
+	 * @param timer The timer the trip is scheduled on
+	 * @return A future that completes once the passenger is at their destination
+	 */
+	public CompletableFuture<Void> driveToDestination(HashedWheelTimer timer)
+	{
+		int travelTime = travelMillis();
+		moveTo(currentPassenger.getDestinationX(), currentPassenger.getDestinationY());
+		return timer.delay(travelTime);
+	}
+	
+	/**
+	 * @return A pickup time between 0-maxDelay milliseconds, in proportion to the distance 
+	 * 			to the current passenger
+	 */
+	private int getPickupTime()
+	{
+		return (int) pickupMillisTo(currentPassenger);
+	}
+	
+	/**
+	 * @return A travel time between 0-maxDelay milliseconds, in proportion to the distance 
+	 * 			to the current passenger's destination
+	 */
+	private int travelMillis()
+	{
+		return (int) driveMillis(distanceTo(currentPassenger.getDestinationX(), currentPassenger.getDestinationY()));
+	}
+	
+	/**
+	 * @return How many milliseconds it would take this driver to pick up the given passenger
+	 * 			from where the driver is now
+	 */
+	double pickupMillisTo(Passenger passenger)
+	{
+		return driveMillis(distanceTo(passenger));
+	}
+	
+	/**
+	 * @return How many milliseconds it takes this driver to drive the given distance, so that
+	 * 			crossing the whole city takes maxSleep
+	 */
+	double driveMillis(double distance)
+	{
+		return distance / MAX_DISTANCE * maxSleep;
+	}
+	
+	/**
+	 * Called by dispatch whenever the driver is added to it, so the driver's trips and busy 
+	 * time run on the dispatch's clock
+	 * 
+	 * @return true the first time the driver is added, false if it is coming back
+	 */
+	synchronized boolean join(NuberClock clock)
+	{
+		if (this.clock != clock) {
+			this.clock = clock;
+			joinedNanos = clock.nanoTime();
+		}
+		if (joined) {
+			return false;
+		}
+		joined = true;
+		return true;
+	}
+	
+	/**
+	 * @return When the driver joined, on the driver's clock
+	 */
+	long getJoinedNanos()
+	{
+		return joinedNanos;
+	}
+	
+	/**
+	 * @return The clock the driver's trips run on
+	 */
+	NuberClock getClock()
+	{
+		return clock;
+	}
+	
+	/**
+	 * Called by dispatch when the driver is given to a booking
+	 * 
+	 * @return false if the driver was already busy
+	 */
+	boolean markBusy()
+	{
+		// a driver chained straight from one booking to the next is still on the clock
+		if (busy) {
+			return false;
+		}
+		busySince = clock.nanoTime();
+		busy = true;
+		return true;
+	}
+	
+	/**
+	 * @return When the driver last became busy, on the driver's clock
+	 */
+	long getBusySince()
+	{
+		return busySince;
+	}
+	
+	/**
+	 * Called by dispatch when the driver becomes idle, adding the time since markBusy() to 
+	 * the driver's total busy time
+	 * 
+	 * @return How long the driver was busy for, or -1 if the driver was not busy
+	 */
+	long markIdle()
+	{
+		if (!busy) {
+			return -1;
+		}
+		long busyFor = clock.nanoTime() - busySince;
+		busyNanos += busyFor;
+		busy = false;
+		return busyFor;
+	}
+	
+	/**
+	 * @return The total time the driver has spent on bookings, not counting the current one
+	 */
+	public long getBusyNanos()
+	{
+		return busyNanos;
+	}
+	
+	/**
+	 * Gets the share of the driver's time, since the driver was created, spent on bookings
+	 * 
+	 * @param now The current time on the driver's clock
+	 * @return Between 0 and 1
+	 */
+	double getUtilization(long now)
+	{
+		long sinceJoined = now - joinedNanos;
+		if (sinceJoined <= 0) {
+			return 0;
+		}
+		long busyTotal = busyNanos + (busy ? now - busySince : 0);
+		return Math.min(1, (double) busyTotal / sinceJoined);
 	}
 	
 }
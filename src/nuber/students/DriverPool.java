@@ -0,0 +1,43 @@
+package nuber.students;
+
+/**
+ * Holds the drivers that are idle and waiting for a booking.
+ * 
+ * A pool never blocks: bookings that find it empty wait in dispatch's queue of DriverWaiters
+ * instead, and are handed drivers directly as they come free.
+ */
+public interface DriverPool {
+
+	/**
+	 * Adds an idle driver to the pool
+	 * 
+	 * @param driver The driver to add
+	 * @return false if the pool is full
+	 */
+	boolean offer(Driver driver);
+
+	/**
+	 * Takes an idle driver out of the pool
+	 * 
+	 * @return The driver, or null if the pool is empty
+	 */
+	Driver poll();
+
+	/**
+	 * Takes the idle driver nearest to the given person out of the pool. Pools that do not 
+	 * keep track of where their drivers are return the same driver as poll().
+	 * 
+	 * @param person The person the driver is for
+	 * @return The driver, or null if the pool is empty
+	 */
+	default Driver pollNearest(Person person)
+	{
+		return poll();
+	}
+
+	/**
+	 * @return The number of idle drivers in the pool
+	 */
+	int size();
+
+}
@@ -0,0 +1,70 @@
+package nuber.students;
+
+/**
+ * The built-in policies for which idle driver a NuberDispatch gives each booking, and the
+ * DriverPool each of them keeps its idle drivers in
+ */
+public enum DriverPoolType implements DriverSelectionPolicy {
+
+	/**
+	 * First in, first out: an ElasticDriverPool, which has no capacity limit and grows and 
+	 * shrinks with the roster
+	 */
+	ELASTIC,
+
+	/**
+	 * First in, first out: a BlockingQueueDriverPool, the original ArrayBlockingQueue with a 
+	 * single lock, which can hold at most driverPoolCapacity drivers
+	 */
+	BLOCKING_QUEUE,
+
+	/**
+	 * First in, first out: a RingBufferDriverPool, which hands drivers between threads 
+	 * without any locks, and can hold at most driverPoolCapacity drivers
+	 */
+	LOCK_FREE_RING,
+
+	/**
+	 * Nearest first: a SpatialDriverPool, which gives each booking the idle driver nearest 
+	 * to its passenger
+	 */
+	SPATIAL_GRID,
+
+	/**
+	 * Last in, first out: a LifoDriverPool, which keeps reusing a small hot set of drivers
+	 */
+	LIFO,
+
+	/**
+	 * Least busy first: a LeastBusyDriverPool, which shares work fairly between drivers
+	 */
+	LEAST_BUSY,
+
+	/**
+	 * Power of two choices: a ShardedDriverPool with driverPoolShards shards
+	 */
+	POWER_OF_TWO_CHOICES;
+
+	@Override
+	public DriverPool createPool(DispatchConfig config)
+	{
+		int boundedCapacity = config.driverPoolCapacity > 0 ? config.driverPoolCapacity : NuberDispatch.MAX_DRIVERS;
+		switch (this) {
+		case BLOCKING_QUEUE:
+			return new BlockingQueueDriverPool(boundedCapacity);
+		case LOCK_FREE_RING:
+			return new RingBufferDriverPool(boundedCapacity);
+		case SPATIAL_GRID:
+			return new SpatialDriverPool(config.driverPoolCapacity > 0 ? config.driverPoolCapacity : Integer.MAX_VALUE,
+					config.spatialGridCells);
+		case LIFO:
+			return new LifoDriverPool();
+		case LEAST_BUSY:
+			return new LeastBusyDriverPool();
+		case POWER_OF_TWO_CHOICES:
+			return new ShardedDriverPool(config.driverPoolShards);
+		default:
+			return new ElasticDriverPool();
+		}
+	}
+}
@@ -0,0 +1,280 @@
+package nuber.students;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Steers freed drivers towards the regions with the most bookings waiting.
+ *
+ * Without a rebalancer, a freed driver goes to whichever waiting booking is first in priority
+ * order, wherever it is. A region whose concurrency limit holds most of a sudden surge in its
+ * queue only has a few bookings asking for drivers at a time, so it gets a few drivers at a
+ * time, and its queue drains slowly.
+ *
+ * Once every interval the rebalancer's thread samples each region's backlog, the bookings
+ * queued in the region plus those waiting for a driver, and smooths each region's share of
+ * the total backlog over time. While one region's share is well above an even split, freed
+ * drivers are handed out between the regions with bookings waiting in proportion to their
+ * shares, using smooth weighted round robin, instead of strictly by priority. The round robin
+ * order is worked out once whenever the shares change and published with them, so picking a
+ * region for a freed driver takes no lock.
+ *
+ * To keep regions from taking turns being favoured, steering only starts when a region's
+ * share is more than the hysteresis above an even split, and only stops once every region is
+ * back within half of it. While steering, the shares in use are only replaced when one of
+ * them has moved by more than the hysteresis.
+ */
+public class DriverRebalancer {
+
+	/**
+	 * How much of each new sample goes into the smoothed shares
+	 */
+	private final double SMOOTHING = 0.5;
+	/**
+	 * How many turns the published round robin order has, so each share is followed to within
+	 * one turn in this many
+	 */
+	private static final int SCHEDULE_LENGTH = 100;
+
+	private final NuberDispatch dispatch;
+	private final long intervalNanos;
+	private final double hysteresis;
+	private final ArrayList<String> regions;
+	private final Thread worker;
+	private volatile boolean stopped = false;
+
+	/**
+	 * Each region's smoothed share of the backlog, only used by the rebalancer's thread
+	 */
+	private final HashMap<String, Double> smoothedShares = new HashMap<String, Double>();
+	/**
+	 * The shares freed drivers are handed out by, and their round robin order, or null while
+	 * not steering. Never changed once published, only replaced.
+	 */
+	private volatile Steering steering;
+	/**
+	 * The next turn of the round robin order
+	 */
+	private final AtomicInteger nextTurn = new AtomicInteger(0);
+
+	private final LongAdder samples = new LongAdder();
+	private final LongAdder rebalances = new LongAdder();
+	private final LongAdder steeredDrivers = new LongAdder();
+
+	/**
+	 * Creates and starts a rebalancer
+	 *
+	 * @param dispatch The dispatch whose drivers are steered
+	 * @param regions The names of the dispatch's regions
+	 * @param intervalMillis How often the regions' backlogs are sampled
+	 * @param hysteresis How far above an even split a region's share of the backlog must be
+	 * 			before drivers are steered, between 0 and 1
+	 */
+	DriverRebalancer(NuberDispatch dispatch, ArrayList<String> regions, long intervalMillis, double hysteresis)
+	{
+		this.dispatch = dispatch;
+		this.regions = regions;
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, intervalMillis));
+		this.hysteresis = hysteresis;
+		worker = new Thread(this::run, "nuber-rebalancer");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Stops rebalancing, after which freed drivers go to bookings in priority order again
+	 */
+	void stop()
+	{
+		stopped = true;
+		steering = null;
+		LockSupport.unpark(worker);
+	}
+
+	private void run()
+	{
+		long nextSample = System.nanoTime() + intervalNanos;
+		while (!stopped) {
+			long sleepNanos;
+			while ((sleepNanos = nextSample - System.nanoTime()) > 0 && !stopped) {
+				LockSupport.parkNanos(this, sleepNanos);
+			}
+			if (stopped) {
+				break;
+			}
+			try {
+				sample();
+			} catch (Throwable t) {
+				t.printStackTrace();
+			}
+			nextSample += intervalNanos;
+			nextSample = Math.max(nextSample, System.nanoTime());
+		}
+	}
+
+	/**
+	 * Samples every region's backlog, and decides whether and how freed drivers are steered
+	 */
+	private void sample()
+	{
+		HashMap<String, Integer> backlogs = new HashMap<String, Integer>();
+		int total = 0;
+		for (String region : regions) {
+			int backlog = dispatch.getRegion(region).getQueuedBookings() + dispatch.getBookingsAwaitingDriver(region);
+			backlogs.put(region, backlog);
+			total += backlog;
+		}
+		double evenShare = 1.0 / regions.size();
+		double largestShare = 0;
+		for (String region : regions) {
+			double share = total == 0 ? evenShare : (double) backlogs.get(region) / total;
+			double smoothed = SMOOTHING * share + (1 - SMOOTHING) * smoothedShares.getOrDefault(region, evenShare);
+			smoothedShares.put(region, smoothed);
+			largestShare = Math.max(largestShare, smoothed);
+		}
+		samples.increment();
+
+		Steering current = steering;
+		if (current == null) {
+			if (largestShare - evenShare > hysteresis) {
+				publish(new HashMap<String, Double>(smoothedShares));
+			}
+		} else if (largestShare - evenShare <= hysteresis / 2) {
+			publish(null);
+		} else {
+			for (String region : regions) {
+				if (Math.abs(smoothedShares.get(region) - current.shares.get(region)) > hysteresis) {
+					publish(new HashMap<String, Double>(smoothedShares));
+					break;
+				}
+			}
+		}
+	}
+
+	private void publish(HashMap<String, Double> shares)
+	{
+		steering = shares == null ? null : new Steering(shares, regions);
+		rebalances.increment();
+	}
+
+	/**
+	 * Picks the region the next freed driver should go to, among the regions with bookings
+	 * waiting for a driver
+	 *
+	 * Each freed driver takes the next turn of the published round robin order, and a turn
+	 * whose region has nobody waiting passes to the turn after it.
+	 *
+	 * @return The name of the region, or null if drivers are not being steered, in which case
+	 * 			the driver goes to the first waiting booking in priority order
+	 */
+	String steerDriver()
+	{
+		Steering current = steering;
+		if (current == null) {
+			return null;
+		}
+		String[] schedule = current.schedule;
+		int turn = nextTurn.getAndIncrement();
+		for (int i = 0; i < schedule.length; i++) {
+			String region = schedule[Math.floorMod(turn + i, schedule.length)];
+			if (dispatch.getBookingsAwaitingDriver(region) > 0) {
+				return region;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Called by dispatch when a driver has been handed to a booking in the region steerDriver() picked
+	 */
+	void driverSteered()
+	{
+		steeredDrivers.increment();
+	}
+
+	/**
+	 * @return true while freed drivers are being steered by the regions' shares of the backlog
+	 */
+	public boolean isSteering()
+	{
+		return steering != null;
+	}
+
+	/**
+	 * @return The shares of the backlog freed drivers are currently handed out by, keyed by
+	 * 			region name, or an empty map while not steering
+	 */
+	public HashMap<String, Double> getSteeringShares()
+	{
+		Steering current = steering;
+		return current == null ? new HashMap<String, Double>() : new HashMap<String, Double>(current.shares);
+	}
+
+	/**
+	 * @return How many times the regions' backlogs have been sampled
+	 */
+	public long getSamples()
+	{
+		return samples.sum();
+	}
+
+	/**
+	 * @return How many times steering started, stopped, or changed its shares
+	 */
+	public long getRebalances()
+	{
+		return rebalances.sum();
+	}
+
+	/**
+	 * @return The number of freed drivers handed to a booking in the region they were steered to
+	 */
+	public long getSteeredDrivers()
+	{
+		return steeredDrivers.sum();
+	}
+
+	/**
+	 * A set of shares, and the order smooth weighted round robin hands drivers out in by them
+	 */
+	private static class Steering {
+
+		final HashMap<String, Double> shares;
+		final String[] schedule;
+
+		Steering(HashMap<String, Double> shares, ArrayList<String> regions)
+		{
+			this.shares = shares;
+			ArrayList<String> order = new ArrayList<String>();
+			HashMap<String, Double> currentWeights = new HashMap<String, Double>();
+			for (int turn = 0; turn < SCHEDULE_LENGTH; turn++) {
+				String best = null;
+				double totalWeight = 0;
+				for (String region : regions) {
+					double weight = shares.get(region);
+					if (weight <= 0) {
+						continue;
+					}
+					double current = currentWeights.getOrDefault(region, 0.0) + weight;
+					currentWeights.put(region, current);
+					totalWeight += weight;
+					if (best == null || current > currentWeights.get(best)) {
+						best = region;
+					}
+				}
+				if (best == null) {
+					break;
+				}
+				currentWeights.put(best, currentWeights.get(best) - totalWeight);
+				order.add(best);
+			}
+			schedule = order.toArray(new String[order.size()]);
+		}
+
+	}
+
+}
@@ -0,0 +1,20 @@
+package nuber.students;
+
+/**
+ * Decides which idle driver a NuberDispatch gives to each booking, by creating the pool the
+ * idle drivers are kept in. The pool's poll() and pollNearest() choose the driver.
+ * 
+ * The built-in policies are the values of DriverPoolType. A custom policy can be plugged in
+ * through DispatchConfig.driverSelectionPolicy, for example as a lambda that creates a pool.
+ */
+public interface DriverSelectionPolicy {
+
+	/**
+	 * Creates an empty pool for idle drivers that follows this policy
+	 * 
+	 * @param config The settings of the dispatch the pool is for
+	 * @return A new, empty driver pool
+	 */
+	DriverPool createPool(DispatchConfig config);
+
+}
@@ -0,0 +1,53 @@
+package nuber.students;
+
+/**
+ * A snapshot of how well a NuberDispatch's DriverSelectionPolicy is using its drivers, so 
+ * policies can be compared on measured numbers
+ */
+public class DriverUtilization {
+
+	/**
+	 * The name of the driver selection policy
+	 */
+	public final String policy;
+	/**
+	 * Drivers that have been added to dispatch
+	 */
+	public final int drivers;
+	/**
+	 * Drivers that are on a booking right now
+	 */
+	public final int busyDrivers;
+	/**
+	 * Drivers given to bookings
+	 */
+	public final long selections;
+	/**
+	 * Drivers given to bookings that found an idle driver straight away, without waiting
+	 */
+	public final long immediateSelections;
+	/**
+	 * The share of the drivers' combined time, since each of them joined, spent on bookings, 
+	 * between 0 and 1
+	 */
+	public final double meanUtilization;
+
+	public DriverUtilization(String policy, int drivers, int busyDrivers, long selections, long immediateSelections,
+			double meanUtilization)
+	{
+		this.policy = policy;
+		this.drivers = drivers;
+		this.busyDrivers = busyDrivers;
+		this.selections = selections;
+		this.immediateSelections = immediateSelections;
+		this.meanUtilization = meanUtilization;
+	}
+
+	@Override
+	public String toString()
+	{
+		return policy + ": drivers: " + drivers + " (" + busyDrivers + " busy), selections: " + selections + " (" 
+				+ immediateSelections + " without waiting), utilization mean: " + String.format("%.3f", meanUtilization);
+	}
+
+}
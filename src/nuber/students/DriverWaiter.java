@@ -0,0 +1,79 @@
+package nuber.students;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A booking's place in dispatch's queue of bookings waiting for a driver.
+ * 
+ * When a driver becomes free, dispatch hands it straight to the waiter at the front of the 
+ * queue by completing its future. A waiter that gives up withdraws by cancelling the future,
+ * so a driver can never be handed to a booking that has stopped waiting, and a booking can 
+ * always tell whether a driver reached it before it withdrew.
+ */
+class DriverWaiter implements Comparable<DriverWaiter> {
+
+	private static final AtomicLong nextSequence = new AtomicLong(0);
+
+	final CompletableFuture<Driver> handoff = new CompletableFuture<Driver>();
+	final String region;
+	final Passenger passenger;
+	private final long orderKey;
+	private final long sequence = nextSequence.incrementAndGet();
+
+	/**
+	 * @param orderKey The waiter's place in the queue, as given by BookingPriority.orderKey()
+	 */
+	DriverWaiter(long orderKey)
+	{
+		this(orderKey, null, null);
+	}
+
+	/**
+	 * @param orderKey The waiter's place in the queue, as given by BookingPriority.orderKey()
+	 * @param region The name of the region the booking is in, may be null
+	 * @param passenger The passenger the booking is for, may be null
+	 */
+	DriverWaiter(long orderKey, String region, Passenger passenger)
+	{
+		this.orderKey = orderKey;
+		this.region = region;
+		this.passenger = passenger;
+	}
+
+	/**
+	 * Hands a driver to the waiting booking
+	 * 
+	 * @return false if the booking had already withdrawn, or been given a driver
+	 */
+	boolean offer(Driver driver)
+	{
+		return handoff.complete(driver);
+	}
+
+	/**
+	 * Stops waiting for a driver
+	 * 
+	 * @return false if a driver was handed over first, in which case it belongs to the booking
+	 */
+	boolean withdraw()
+	{
+		return handoff.cancel(false);
+	}
+
+	/**
+	 * @return true if the booking is no longer waiting, because it withdrew or was given a driver
+	 */
+	boolean isDone()
+	{
+		return handoff.isDone();
+	}
+
+	@Override
+	public int compareTo(DriverWaiter other)
+	{
+		int byKey = Long.compare(orderKey, other.orderKey);
+		return byKey != 0 ? byKey : Long.compare(sequence, other.sequence);
+	}
+
+}
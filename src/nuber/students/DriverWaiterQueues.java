@@ -0,0 +1,127 @@
+package nuber.students;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The bookings waiting for a driver, kept in one queue per region.
+ *
+ * Each queue is a skip list in priority order, so adding, taking and withdrawing a waiter
+ * never takes a lock, and costs log n. Taking the front waiter of one region, as trip
+ * chaining and the rebalancer do, only looks at that region's queue. Taking the front
+ * waiter overall compares the front of each region's queue, so costs one look per region.
+ *
+ * Waiters without a region, or from a region the dispatch does not have, share one more queue.
+ */
+class DriverWaiterQueues {
+
+	private final HashMap<String, ConcurrentSkipListSet<DriverWaiter>> regionQueues =
+			new HashMap<String, ConcurrentSkipListSet<DriverWaiter>>();
+	private final ConcurrentSkipListSet<DriverWaiter> otherWaiters = new ConcurrentSkipListSet<DriverWaiter>();
+	private final ArrayList<ConcurrentSkipListSet<DriverWaiter>> allQueues =
+			new ArrayList<ConcurrentSkipListSet<DriverWaiter>>();
+	/**
+	 * The number of waiters in all queues, as a skip list can only count itself by walking all of it
+	 */
+	private final AtomicInteger size = new AtomicInteger(0);
+
+	/**
+	 * @param regions The names of the dispatch's regions
+	 */
+	DriverWaiterQueues(Iterable<String> regions)
+	{
+		for (String region : regions) {
+			ConcurrentSkipListSet<DriverWaiter> queue = new ConcurrentSkipListSet<DriverWaiter>();
+			regionQueues.put(region, queue);
+			allQueues.add(queue);
+		}
+		allQueues.add(otherWaiters);
+	}
+
+	void add(DriverWaiter waiter)
+	{
+		size.incrementAndGet();
+		queueFor(waiter.region).add(waiter);
+	}
+
+	/**
+	 * Takes a waiter out, for example once it has withdrawn
+	 *
+	 * @return false if the waiter had already been taken out
+	 */
+	boolean remove(DriverWaiter waiter)
+	{
+		if (queueFor(waiter.region).remove(waiter)) {
+			size.decrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Takes out the waiter first in priority order, from whichever region
+	 *
+	 * @return The waiter, which may already have withdrawn, or null if nobody is waiting
+	 */
+	DriverWaiter pollFirst()
+	{
+		while (true) {
+			ConcurrentSkipListSet<DriverWaiter> frontQueue = null;
+			DriverWaiter front = null;
+			for (ConcurrentSkipListSet<DriverWaiter> queue : allQueues) {
+				DriverWaiter first = peek(queue);
+				if (first != null && (front == null || first.compareTo(front) < 0)) {
+					front = first;
+					frontQueue = queue;
+				}
+			}
+			if (front == null) {
+				return null;
+			}
+			if (frontQueue.remove(front)) {
+				size.decrementAndGet();
+				return front;
+			}
+			// another thread took it first, so look again
+		}
+	}
+
+	/**
+	 * Takes out the waiter first in priority order among those from one region
+	 *
+	 * @param region The name of the region, may be null
+	 * @return The waiter, which may already have withdrawn, or null if nobody in the region is waiting
+	 */
+	DriverWaiter pollFirst(String region)
+	{
+		DriverWaiter waiter = queueFor(region).pollFirst();
+		if (waiter != null) {
+			size.decrementAndGet();
+		}
+		return waiter;
+	}
+
+	/**
+	 * @return true if nobody is waiting
+	 */
+	boolean isEmpty()
+	{
+		return size.get() <= 0;
+	}
+
+	private ConcurrentSkipListSet<DriverWaiter> queueFor(String region)
+	{
+		ConcurrentSkipListSet<DriverWaiter> queue = region == null ? null : regionQueues.get(region);
+		return queue == null ? otherWaiters : queue;
+	}
+
+	private static DriverWaiter peek(ConcurrentSkipListSet<DriverWaiter> queue)
+	{
+		Iterator<DriverWaiter> waiters = queue.iterator();
+		return waiters.hasNext() ? waiters.next() : null;
+	}
+
+}
@@ -0,0 +1,48 @@
+package nuber.students;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An unbounded, lock-free pool of idle drivers.
+ * 
+ * Drivers are kept in a linked queue, so the pool never runs out of room and only uses 
+ * memory for the drivers actually in it, growing as drivers are added and shrinking again
+ * as they are taken. The number of drivers is counted separately, as counting the linked 
+ * queue itself means walking all of it.
+ * 
+ * Drivers come out in FIFO order, like the original queue.
+ */
+public class ElasticDriverPool implements DriverPool {
+
+	private final ConcurrentLinkedQueue<Driver> drivers = new ConcurrentLinkedQueue<Driver>();
+	private final AtomicInteger size = new AtomicInteger(0);
+
+	/**
+	 * Adds an idle driver, which always succeeds
+	 */
+	@Override
+	public boolean offer(Driver driver)
+	{
+		drivers.add(driver);
+		size.incrementAndGet();
+		return true;
+	}
+
+	@Override
+	public Driver poll()
+	{
+		Driver driver = drivers.poll();
+		if (driver != null) {
+			size.decrementAndGet();
+		}
+		return driver;
+	}
+
+	@Override
+	public int size()
+	{
+		return Math.max(0, size.get());
+	}
+
+}
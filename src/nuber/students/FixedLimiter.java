@@ -0,0 +1,61 @@
+package nuber.students;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A limiter that never changes its limit, which is how maxSimultaneousJobs has always behaved.
+ */
+public class FixedLimiter implements ConcurrencyLimiter {
+
+	private volatile int limit;
+	private final AtomicInteger inFlight = new AtomicInteger(0);
+
+	public FixedLimiter(int limit)
+	{
+		this.limit = limit;
+	}
+
+	@Override
+	public boolean tryAcquire()
+	{
+		int current;
+		do {
+			current = inFlight.get();
+			if (current >= limit) {
+				return false;
+			}
+		} while (!inFlight.compareAndSet(current, current + 1));
+		return true;
+	}
+
+	@Override
+	public void release()
+	{
+		inFlight.decrementAndGet();
+	}
+
+	@Override
+	public void release(long driverWaitNanos, long latencyNanos)
+	{
+		release();
+	}
+
+	@Override
+	public int getLimit()
+	{
+		return limit;
+	}
+
+	@Override
+	public void setMaxLimit(int maxLimit)
+	{
+		limit = maxLimit;
+	}
+
+	@Override
+	public int getInFlight()
+	{
+		return inFlight.get();
+	}
+
+}
@@ -0,0 +1,291 @@
+package nuber.students;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A hashed timing wheel that runs tasks after a delay using a single thread.
+ * 
+ * Time is divided into ticks, and each scheduled task is dropped into the bucket for the
+ * tick it expires on, along with how many full turns of the wheel it has to wait first.
+ * Scheduling and expiring are both constant time, so one thread can keep track of hundreds
+ * of thousands of trips, at the cost of only being accurate to within one tick.
+ * 
+ * A cancelled task is taken out of its bucket on the next tick, rather than left there until
+ * it would have expired, so the wheel only ever holds tasks that may still run.
+ * 
+ * Tasks run on the timer's own thread and should be short; anything slow should be handed
+ * off to another executor.
+ * 
+ * Delays are measured on the timer's NuberClock, so on a ScaledClock or ManualClock they 
+ * are in simulated time.
+ */
+public class HashedWheelTimer {
+	
+	private final long tickNanos;
+	private final int mask;
+	private final Timeout[] buckets;
+	private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+	private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+	private final NuberClock clock;
+	private final long startNanos;
+	private final Thread worker;
+	private volatile boolean stopped = false;
+	
+	/**
+	 * Creates a timer with a 1ms tick and a wheel that covers just over a second per turn
+	 * 
+	 * @param name The name given to the timer's thread
+	 */
+	public HashedWheelTimer(String name)
+	{
+		this(name, NuberClock.SYSTEM);
+	}
+	
+	/**
+	 * Creates a timer with a 1ms tick, measured on the given clock
+	 * 
+	 * @param name The name given to the timer's thread
+	 * @param clock The clock delays are measured on
+	 */
+	public HashedWheelTimer(String name, NuberClock clock)
+	{
+		this(name, 1, 1024, clock);
+	}
+	
+	/**
+	 * Creates and starts a new timer
+	 * 
+	 * @param name The name given to the timer's thread
+	 * @param tickMillis How long each tick lasts, which is also the timer's accuracy
+	 * @param wheelSize Number of buckets in the wheel, rounded up to a power of two
+	 */
+	public HashedWheelTimer(String name, long tickMillis, int wheelSize)
+	{
+		this(name, tickMillis, wheelSize, NuberClock.SYSTEM);
+	}
+	
+	/**
+	 * Creates and starts a new timer whose delays are measured on the given clock
+	 * 
+	 * @param name The name given to the timer's thread
+	 * @param tickMillis How long each tick lasts, which is also the timer's accuracy
+	 * @param wheelSize Number of buckets in the wheel, rounded up to a power of two
+	 * @param clock The clock delays are measured on
+	 */
+	public HashedWheelTimer(String name, long tickMillis, int wheelSize, NuberClock clock)
+	{
+		this.clock = clock;
+		this.startNanos = clock.nanoTime();
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+		int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+		this.mask = size - 1;
+		this.buckets = new Timeout[size];
+		worker = new Thread(this::run, name);
+		worker.setDaemon(true);
+		worker.start();
+	}
+	
+	/**
+	 * Schedules a task to run once the given delay has passed
+	 * 
+	 * @param task The task to run on the timer thread
+	 * @param delayMillis How long to wait before running it
+	 * @return The scheduled task, which can be cancelled if it is no longer needed
+	 * @throws RejectedExecutionException if the timer has been stopped
+	 */
+	public Timeout schedule(Runnable task, long delayMillis)
+	{
+		if (stopped) {
+			throw new RejectedExecutionException("timer has been stopped");
+		}
+		long deadline = clock.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+		Timeout timeout = new Timeout(this, task, deadline);
+		newTimeouts.add(timeout);
+		return timeout;
+	}
+	
+	/**
+	 * Gets a future that completes once the given delay has passed
+	 * 
+	 * @param delayMillis How long to wait
+	 * @return A future completed on the timer thread after the delay
+	 */
+	public CompletableFuture<Void> delay(long delayMillis)
+	{
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		try {
+			schedule(() -> future.complete(null), delayMillis);
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+	
+	/**
+	 * Stops the timer thread. Tasks that have not yet expired are never run.
+	 */
+	public void stop()
+	{
+		stopped = true;
+		// a task on the timer thread may stop the timer, and should not be left interrupted
+		if (Thread.currentThread() != worker) {
+			worker.interrupt();
+		}
+	}
+	
+	private void run()
+	{
+		long tick = 0;
+		while (!stopped) {
+			long tickEnd = (tick + 1) * tickNanos;
+			long sleepNanos;
+			while ((sleepNanos = tickEnd - (clock.nanoTime() - startNanos)) > 0 && !stopped) {
+				try {
+					clock.sleepNanos(sleepNanos);
+				} catch (InterruptedException e) {
+					// stop() wakes the timer this way
+				}
+			}
+			if (stopped) {
+				break;
+			}
+			removeCancelledTimeouts();
+			transferNewTimeouts(tick);
+			expireTimeouts(tick);
+			tick++;
+		}
+	}
+	
+	/**
+	 * Moves newly scheduled tasks into the bucket for the tick they expire on
+	 */
+	private void transferNewTimeouts(long currentTick)
+	{
+		Timeout timeout;
+		while ((timeout = newTimeouts.poll()) != null) {
+			if (timeout.isCancelled()) {
+				continue;
+			}
+			// the tick whose end is the first at or after the deadline, never one already passed
+			long expiryTick = Math.max(currentTick, (timeout.deadline + tickNanos - 1) / tickNanos - 1);
+			timeout.remainingRounds = (expiryTick - currentTick) / buckets.length;
+			int index = (int) (expiryTick & mask);
+			timeout.bucket = index;
+			timeout.next = buckets[index];
+			if (timeout.next != null) {
+				timeout.next.previous = timeout;
+			}
+			buckets[index] = timeout;
+		}
+	}
+	
+	/**
+	 * Takes every task cancelled since the last tick out of its bucket. Tasks cancelled before
+	 * they reached a bucket are dropped by transferNewTimeouts() instead.
+	 */
+	private void removeCancelledTimeouts()
+	{
+		Timeout timeout;
+		while ((timeout = cancelledTimeouts.poll()) != null) {
+			removeFromBucket(timeout);
+		}
+	}
+	
+	private void removeFromBucket(Timeout timeout)
+	{
+		if (timeout.bucket < 0) {
+			return;
+		}
+		if (timeout.previous == null) {
+			buckets[timeout.bucket] = timeout.next;
+		} else {
+			timeout.previous.next = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.previous = timeout.previous;
+		}
+		timeout.previous = null;
+		timeout.next = null;
+		timeout.bucket = -1;
+	}
+	
+	/**
+	 * Runs every task in the current bucket that has no more rounds to wait
+	 */
+	private void expireTimeouts(long currentTick)
+	{
+		int index = (int) (currentTick & mask);
+		Timeout timeout = buckets[index];
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			if (timeout.remainingRounds <= 0) {
+				removeFromBucket(timeout);
+				// a task cancelled during this tick is already done, and is not run
+				if (timeout.done.compareAndSet(false, true)) {
+					try {
+						timeout.task.run();
+					} catch (Throwable t) {
+						t.printStackTrace();
+					}
+				}
+			} else {
+				timeout.remainingRounds--;
+			}
+			timeout = next;
+		}
+	}
+	
+	/**
+	 * A scheduled task, linked into its bucket's list. The links are only used by the timer thread.
+	 */
+	public static class Timeout {
+		private final HashedWheelTimer timer;
+		private final Runnable task;
+		private final long deadline;
+		/**
+		 * Set once the task has either run or been cancelled, so only one of them happens
+		 */
+		private final AtomicBoolean done = new AtomicBoolean(false);
+		private volatile boolean cancelled = false;
+		private long remainingRounds;
+		private int bucket = -1;
+		private Timeout previous;
+		private Timeout next;
+		
+		private Timeout(HashedWheelTimer timer, Runnable task, long deadline)
+		{
+			this.timer = timer;
+			this.task = task;
+			this.deadline = deadline;
+		}
+		
+		/**
+		 * Stops the task from running, and has the timer take it out of the wheel on its next tick
+		 * 
+		 * @return false if the task has already run or been cancelled
+		 */
+		public boolean cancel()
+		{
+			if (!done.compareAndSet(false, true)) {
+				return false;
+			}
+			cancelled = true;
+			timer.cancelledTimeouts.add(this);
+			return true;
+		}
+		
+		/**
+		 * @return true if the task was cancelled before it ran
+		 */
+		public boolean isCancelled()
+		{
+			return cancelled;
+		}
+	}
+
+}
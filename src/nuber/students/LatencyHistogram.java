@@ -0,0 +1,94 @@
+package nuber.students;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in buckets, so percentiles can be read at any time without locks and 
+ * without keeping every sample.
+ * 
+ * Each power of two is split into SUB_BUCKETS buckets, so a percentile is never more than 
+ * one bucket, an eighth of its value, away from the true latency. Recording a latency is a 
+ * single atomic increment, and reading a percentile walks the buckets once.
+ */
+class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+
+	/**
+	 * @param nanos The latency to count, negative values are counted as 0
+	 */
+	void record(long nanos)
+	{
+		counts.incrementAndGet(bucketOf(Math.max(0, nanos)));
+	}
+
+	/**
+	 * Gets a percentile of the latencies recorded so far
+	 * 
+	 * @param percentile The percentile, between 0 and 100
+	 * @return The percentile in nanoseconds, or 0 if nothing has been recorded
+	 */
+	long percentile(double percentile)
+	{
+		return percentile(List.of(this), percentile);
+	}
+
+	/**
+	 * Gets a percentile of the latencies recorded by several histograms together
+	 * 
+	 * @param histograms The histograms
+	 * @param percentile The percentile, between 0 and 100
+	 * @return The percentile in nanoseconds, or 0 if nothing has been recorded
+	 */
+	static long percentile(List<LatencyHistogram> histograms, double percentile)
+	{
+		int buckets = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+		long[] merged = new long[buckets];
+		long total = 0;
+		for (LatencyHistogram histogram : histograms) {
+			for (int i = 0; i < buckets; i++) {
+				long count = histogram.counts.get(i);
+				merged[i] += count;
+				total += count;
+			}
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < buckets; i++) {
+			seen += merged[i];
+			if (seen >= rank) {
+				return highestValueIn(i);
+			}
+		}
+		return highestValueIn(buckets - 1);
+	}
+
+	private static int bucketOf(long value)
+	{
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long highestValueIn(int bucket)
+	{
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = bucket % SUB_BUCKETS;
+		long lowest = (1L << exponent) | (subBucket << (exponent - SUB_BUCKET_BITS));
+		return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+}
@@ -0,0 +1,36 @@
+package nuber.students;
+
+import java.util.Comparator;
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * An unbounded pool that gives out the idle driver who has spent the least time on trips
+ * so far, so work is shared out fairly across the fleet.
+ * 
+ * Drivers are kept in a heap ordered by their total busy time, which only changes while a 
+ * driver is out of the pool, so adding and taking a driver are both O(log n).
+ */
+public class LeastBusyDriverPool implements DriverPool {
+
+	private final PriorityBlockingQueue<Driver> drivers = new PriorityBlockingQueue<Driver>(11,
+			Comparator.comparingLong(Driver::getBusyNanos));
+
+	@Override
+	public boolean offer(Driver driver)
+	{
+		return drivers.offer(driver);
+	}
+
+	@Override
+	public Driver poll()
+	{
+		return drivers.poll();
+	}
+
+	@Override
+	public int size()
+	{
+		return drivers.size();
+	}
+
+}
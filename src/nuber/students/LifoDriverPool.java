@@ -0,0 +1,42 @@
+package nuber.students;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An unbounded, lock-free pool that gives out the driver who became idle most recently.
+ * 
+ * When there are more drivers than bookings, the same small set of recently busy drivers 
+ * keeps being reused while the rest stay idle, which suits fleets where idle drivers can go 
+ * off shift, at the cost of sharing work less evenly.
+ */
+public class LifoDriverPool implements DriverPool {
+
+	private final ConcurrentLinkedDeque<Driver> drivers = new ConcurrentLinkedDeque<Driver>();
+	private final AtomicInteger size = new AtomicInteger(0);
+
+	@Override
+	public boolean offer(Driver driver)
+	{
+		drivers.addFirst(driver);
+		size.incrementAndGet();
+		return true;
+	}
+
+	@Override
+	public Driver poll()
+	{
+		Driver driver = drivers.pollFirst();
+		if (driver != null) {
+			size.decrementAndGet();
+		}
+		return driver;
+	}
+
+	@Override
+	public int size()
+	{
+		return Math.max(0, size.get());
+	}
+
+}
@@ -0,0 +1,56 @@
+package nuber.students;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A clock that only moves when advance() is called, for tests. Threads that sleep on it stay
+ * paused until the clock has been advanced past the end of their sleep, so a test decides 
+ * exactly when each pickup, trip and timer event finishes.
+ */
+public class ManualClock implements NuberClock {
+
+	private long now = 0;
+	private int sleepingThreads = 0;
+
+	@Override
+	public synchronized long nanoTime()
+	{
+		return now;
+	}
+
+	@Override
+	public synchronized void sleepNanos(long nanos) throws InterruptedException
+	{
+		long deadline = now + nanos;
+		sleepingThreads++;
+		try {
+			while (now < deadline) {
+				wait();
+			}
+		} finally {
+			sleepingThreads--;
+		}
+	}
+
+	/**
+	 * Moves the clock on, waking every thread whose sleep has ended
+	 * 
+	 * @param amount How far to move the clock
+	 * @param unit The unit of the amount
+	 */
+	public synchronized void advance(long amount, TimeUnit unit)
+	{
+		now += unit.toNanos(amount);
+		notifyAll();
+	}
+
+	/**
+	 * @return The number of threads currently sleeping on the clock, so a test can wait for 
+	 * 			them to be paused before advancing
+	 */
+	public synchronized int getSleepingThreads()
+	{
+		return sleepingThreads;
+	}
+
+}
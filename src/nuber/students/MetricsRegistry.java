@@ -0,0 +1,75 @@
+package nuber.students;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Gives a live view of a NuberDispatch and its regions, cheap enough to poll every 100ms.
+ * 
+ * The counters behind it are kept where they change, as LongAdders and atomics in the regions 
+ * and dispatch, so bookings only ever add to an uncontended cell and never wait on the 
+ * registry. snapshot() reads each of them once without taking any locks, so a snapshot is not
+ * an atomic cut across every counter, but each value in it was true at some point during the
+ * read.
+ * 
+ * Throughput rates are measured against the previous snapshot, whoever took it, so they cover 
+ * the interval between polls.
+ */
+public class MetricsRegistry {
+
+	private final NuberDispatch dispatch;
+	private final String[] regionNames;
+	private final AtomicReference<MetricsSnapshot> previous;
+
+	/**
+	 * @param dispatch The dispatch whose metrics are read
+	 * @param regionNames The names of the dispatch's regions
+	 */
+	MetricsRegistry(NuberDispatch dispatch, String[] regionNames)
+	{
+		this.dispatch = dispatch;
+		this.regionNames = regionNames;
+		HashMap<String, RegionMetrics> empty = new HashMap<String, RegionMetrics>();
+		for (String name : regionNames) {
+			empty.put(name, new RegionMetrics(name, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0));
+		}
+		previous = new AtomicReference<MetricsSnapshot>(new MetricsSnapshot(System.nanoTime(), 0, 0, 0, empty));
+	}
+
+	/**
+	 * Reads every region's counters and gauges
+	 * 
+	 * @return A new snapshot, with rates measured since the previous one
+	 */
+	public MetricsSnapshot snapshot()
+	{
+		MetricsSnapshot last = previous.get();
+		long now = System.nanoTime();
+		long interval = now - last.takenAtNanos;
+		double seconds = (double) interval / TimeUnit.SECONDS.toNanos(1);
+		HashMap<String, RegionMetrics> regions = new HashMap<String, RegionMetrics>();
+		for (String name : regionNames) {
+			NuberRegion region = dispatch.getRegion(name);
+			RegionMetrics before = last.getRegion(name);
+			long accepted = region.getAcceptedBookings();
+			long completed = region.getCompletedBookings();
+			regions.put(name, new RegionMetrics(name, region.getQueuedBookings(), region.getActiveBookings(),
+					region.getConcurrencyLimit(), dispatch.getBookingsAwaitingDriver(name), dispatch.getIdleDrivers(name),
+					accepted, completed, region.getCancelledBookings(),
+					region.getRejectedBookings(), region.getExpiredBookings(),
+					rate(accepted - before.acceptedBookings, seconds), rate(completed - before.completedBookings, seconds)));
+		}
+		MetricsSnapshot snapshot = new MetricsSnapshot(now, interval, dispatch.getIdleDrivers(),
+				dispatch.getBookingsAwaitingDriver(), regions);
+		// if another poller got in first, its snapshot stays the baseline for the next rates
+		previous.compareAndSet(last, snapshot);
+		return snapshot;
+	}
+
+	private static double rate(long count, double seconds)
+	{
+		return seconds <= 0 ? 0 : count / seconds;
+	}
+
+}
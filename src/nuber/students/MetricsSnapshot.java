@@ -0,0 +1,89 @@
+package nuber.students;
+
+import java.util.HashMap;
+
+/**
+ * A snapshot of a NuberDispatch's metrics, and those of each of its regions, taken by a 
+ * MetricsRegistry. A snapshot never changes once taken.
+ */
+public class MetricsSnapshot {
+
+	/**
+	 * The System.nanoTime() the snapshot was taken at
+	 */
+	public final long takenAtNanos;
+	/**
+	 * The time since the previous snapshot, which the rates are measured over
+	 */
+	public final long intervalNanos;
+	/**
+	 * Drivers sitting idle, across ALL regions
+	 */
+	public final int idleDrivers;
+	/**
+	 * Bookings waiting for a driver, across ALL regions
+	 */
+	public final int bookingsAwaitingDriver;
+	/**
+	 * Bookings accepted per second since the previous snapshot, across ALL regions
+	 */
+	public final double acceptedPerSecond;
+	/**
+	 * Bookings completed per second since the previous snapshot, across ALL regions
+	 */
+	public final double completedPerSecond;
+	/**
+	 * The metrics of each region, keyed by region name
+	 */
+	private final HashMap<String, RegionMetrics> regions;
+
+	public MetricsSnapshot(long takenAtNanos, long intervalNanos, int idleDrivers, int bookingsAwaitingDriver,
+			HashMap<String, RegionMetrics> regions)
+	{
+		this.takenAtNanos = takenAtNanos;
+		this.intervalNanos = intervalNanos;
+		this.idleDrivers = idleDrivers;
+		this.bookingsAwaitingDriver = bookingsAwaitingDriver;
+		this.regions = regions;
+		double accepted = 0;
+		double completed = 0;
+		for (RegionMetrics region : regions.values()) {
+			accepted += region.acceptedPerSecond;
+			completed += region.completedPerSecond;
+		}
+		this.acceptedPerSecond = accepted;
+		this.completedPerSecond = completed;
+	}
+
+	/**
+	 * Gets one region's metrics
+	 * 
+	 * @param region The name of the region
+	 * @return The region's metrics, or null if the dispatch has no region with that name
+	 */
+	public RegionMetrics getRegion(String region)
+	{
+		return regions.get(region);
+	}
+
+	/**
+	 * @return The metrics of every region, keyed by region name
+	 */
+	public HashMap<String, RegionMetrics> getRegions()
+	{
+		return new HashMap<String, RegionMetrics>(regions);
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder text = new StringBuilder("idle drivers: " + idleDrivers + ", awaiting driver: " + bookingsAwaitingDriver
+				+ ", accepted/s: " + String.format("%.1f", acceptedPerSecond)
+				+ ", completed/s: " + String.format("%.1f", completedPerSecond));
+		for (RegionMetrics region : regions.values()) {
+			text.append("\n  ").append(region);
+		}
+		return text.toString();
+	}
+
+}
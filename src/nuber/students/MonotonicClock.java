@@ -0,0 +1,35 @@
+package nuber.students;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Real time, read from System.nanoTime(), which unlike the wall clock never jumps
+ */
+public class MonotonicClock implements NuberClock {
+
+	@Override
+	public long nanoTime()
+	{
+		return System.nanoTime();
+	}
+
+	/**
+	 * Parks rather than calling Thread.sleep(), so pauses shorter than a millisecond are kept
+	 */
+	@Override
+	public void sleepNanos(long nanos) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + nanos;
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > 0) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			LockSupport.parkNanos(this, remaining);
+		}
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+	}
+
+}
@@ -0,0 +1,46 @@
+package nuber.students;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The source of time for bookings, drivers, timers and simulations: a monotonic clock to 
+ * read, and a way to pause a thread against that same clock.
+ * 
+ * Everything that measures or waits out simulated time goes through one clock, so swapping 
+ * the clock changes how fast the whole simulation runs without changing what it does:
+ * MonotonicClock runs in real time, ScaledClock runs faster by a fixed factor, and 
+ * ManualClock only moves when a test moves it.
+ */
+public interface NuberClock {
+
+	/**
+	 * The real time clock, used unless another is set in DispatchConfig.clock
+	 */
+	NuberClock SYSTEM = new MonotonicClock();
+
+	/**
+	 * @return The current time in nanoseconds, only meaningful compared with other readings
+	 * 			of the same clock
+	 */
+	long nanoTime();
+
+	/**
+	 * Pauses the calling thread until the clock has moved on by the given time
+	 * 
+	 * @param nanos How long to pause, in the clock's time
+	 * @throws InterruptedException if the thread is interrupted while paused
+	 */
+	void sleepNanos(long nanos) throws InterruptedException;
+
+	/**
+	 * Pauses the calling thread until the clock has moved on by the given time
+	 * 
+	 * @param millis How long to pause, in the clock's time
+	 * @throws InterruptedException if the thread is interrupted while paused
+	 */
+	default void sleep(long millis) throws InterruptedException
+	{
+		sleepNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+
+}
@@ -1,9 +1,29 @@
 package nuber.students;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  * The core Dispatch class that instantiates and manages everything for Nuber
@@ -14,14 +34,70 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class NuberDispatch {
 
 	/**
-	 * The maximum number of idle drivers that can be awaiting a booking 
+	 * The maximum number of idle drivers that can be awaiting a booking in a fixed size driver pool,
+	 * unless DispatchConfig.driverPoolCapacity says otherwise
+	 */
+	static final int MAX_DRIVERS = 999;
+	/**
+	 * How many threads per core the shared pool may grow to while its workers are blocked in bookings
+	 */
+	private final int SHARED_POOL_THREADS_PER_CORE = 4;
+	/**
+	 * How many times getDriver() checks the idle drivers again before it parks, on machines with 
+	 * more than one core, as a driver freed on another core often turns up within a few microseconds
 	 */
-	private final int MAX_DRIVERS = 999;
+	private final int DRIVER_SPIN_TRIES = 100;
 	private HashMap<String, NuberRegion> regionHashMap = new HashMap<String, NuberRegion>();
-	private ArrayBlockingQueue<Driver> driverQueue = new ArrayBlockingQueue<Driver>(MAX_DRIVERS);
+	private DriverPool driverQueue;
+	/**
+	 * Each region's own idle drivers, keyed by region name, or null if all regions share driverQueue
+	 */
+	private HashMap<String, DriverPool> regionDriverPools;
+	private ArrayList<DriverPool> allDriverPools = new ArrayList<DriverPool>();
+	private AtomicInteger nextDriverPool = new AtomicInteger(0);
+	private LongAdder stolenDrivers = new LongAdder();
+	/**
+	 * Totals across every driver ever added, so utilization can be worked out without keeping
+	 * hold of the drivers themselves. Times are on the dispatch's clock, and summed with 
+	 * wrap around, which still gives the right differences.
+	 */
+	private AtomicInteger drivers = new AtomicInteger(0);
+	private LongAdder joinedNanos = new LongAdder();
+	private LongAdder busyDrivers = new LongAdder();
+	private LongAdder busySinceNanos = new LongAdder();
+	private LongAdder finishedBusyNanos = new LongAdder();
+	private LongAdder driverSelections = new LongAdder();
+	private LongAdder immediateSelections = new LongAdder();
+	private LongAdder chainedTrips = new LongAdder();
+	/**
+	 * Shared rides that bookings can still join, keyed by region name
+	 */
+	private ConcurrentHashMap<String, ConcurrentLinkedQueue<SharedRide>> openRides =
+			new ConcurrentHashMap<String, ConcurrentLinkedQueue<SharedRide>>();
+	private LongAdder sharedRides = new LongAdder();
+	private LongAdder pooledBookings = new LongAdder();
+	private DoubleAdder detourMillis = new DoubleAdder();
+	/**
+	 * Bookings waiting for a driver, in priority order within each region
+	 */
+	private DriverWaiterQueues driverWaiters;
+	private int driverSpinTries;
+	private long priorityAgingNanos;
 	private boolean logEvents = false;
-	private boolean shutdown = false;
+	private DispatchConfig config;
+	private volatile boolean shutdown = false;
 	private AtomicInteger bookingsAwaitingDriver = new AtomicInteger(0);
+	private HashMap<String, AtomicInteger> regionBookingsAwaitingDriver = new HashMap<String, AtomicInteger>();
+	private AtomicInteger runningRegions = new AtomicInteger(0);
+	private ConcurrentHashMap<Integer, BookingFuture> liveBookings = new ConcurrentHashMap<Integer, BookingFuture>();
+	private HashedWheelTimer tripTimer;
+	private HashedWheelTimer driverWaitTimer;
+	private BatchMatcher batchMatcher;
+	private DriverRebalancer rebalancer;
+	private MetricsRegistry metrics;
+	private static AtomicInteger nextDispatchID = new AtomicInteger(0);
+	private ArrayList<ObjectName> mbeanNames = new ArrayList<ObjectName>();
+	private ForkJoinPool sharedPool;
 	
 	/**
 	 * Creates a new dispatch objects and instantiates the required regions and any other objects required.
@@ -32,14 +108,121 @@ public class NuberDispatch {
 	 */
 	public NuberDispatch(HashMap<String, Integer> regionInfo, boolean logEvents)
 	{
+		this(regionInfo, logEvents, new DispatchConfig());
+	}
+	
+	/**
+	 * Creates a new dispatch object whose regions run their bookings using the given execution mode.
+	 * 
+	 * @param regionInfo Map of region names and the max simultaneous bookings they can handle
+	 * @param logEvents Whether logEvent should print out events passed to it
+	 * @param executionMode The kind of threads every region uses to run active bookings
+	 */
+	public NuberDispatch(HashMap<String, Integer> regionInfo, boolean logEvents, RegionExecutionMode executionMode)
+	{
+		this(regionInfo, logEvents, configWithMode(executionMode));
+	}
+	
+	/**
+	 * Creates a new dispatch object, with the regions and dispatch set up according to the given config.
+	 * 
+	 * @param regionInfo Map of region names and the max simultaneous bookings they can handle
+	 * @param logEvents Whether logEvent should print out events passed to it
+	 * @param config Optional settings for the dispatch and its regions
+	 */
+	public NuberDispatch(HashMap<String, Integer> regionInfo, boolean logEvents, DispatchConfig config)
+	{
+		this.config = config;
+		this.priorityAgingNanos = TimeUnit.MILLISECONDS.toNanos(config.priorityAgingMillis);
+		this.driverSpinTries = Runtime.getRuntime().availableProcessors() > 1 ? DRIVER_SPIN_TRIES : 0;
 		System.out.println("Creating Nuber Dispatch");
 		System.out.println("Creating " + regionInfo.size() + " regions");
 		regionInfo.forEach((key, value) -> {
-			NuberRegion region = new NuberRegion(this, key, value);
+			NuberRegion region = new NuberRegion(this, key, value, config.executionModeFor(key), config.createLimiter(value));
 			regionHashMap.put(key, region);
+			regionBookingsAwaitingDriver.put(key, new AtomicInteger(0));
 		});
 		System.out.println("Down creating " + regionHashMap.size() + "regions");
+		driverWaiters = new DriverWaiterQueues(regionHashMap.keySet());
+		if (config.regionalDriverPools) {
+			regionDriverPools = new HashMap<String, DriverPool>();
+			for (String name : regionHashMap.keySet()) {
+				DriverPool pool = config.createDriverPool();
+				regionDriverPools.put(name, pool);
+				allDriverPools.add(pool);
+			}
+		} else {
+			driverQueue = config.createDriverPool();
+			allDriverPools.add(driverQueue);
+		}
+		runningRegions.set(regionHashMap.size());
+		metrics = new MetricsRegistry(this, regionHashMap.keySet().toArray(new String[0]));
+		if (config.tripMode == TripMode.TIMER) {
+			tripTimer = new HashedWheelTimer("nuber-trip-timer", config.clock);
+		}
+		// driver waits are timed on the dispatch's timer whenever they are not in real time
+		if (config.asyncDriverHandoff || config.clock != NuberClock.SYSTEM) {
+			driverWaitTimer = tripTimer != null ? tripTimer : new HashedWheelTimer("nuber-driver-wait-timer", config.clock);
+		}
+		if (config.batchMatchingWindowMillis > 0) {
+			batchMatcher = new BatchMatcher(this, config.batchMatchingWindowMillis);
+		} else if (config.rebalanceIntervalMillis > 0 && regionHashMap.size() > 1) {
+			rebalancer = new DriverRebalancer(this, new ArrayList<String>(regionHashMap.keySet()),
+					config.rebalanceIntervalMillis, config.rebalanceHysteresis);
+		}
 		this.logEvents = logEvents;
+		// only once everything the MBeans reach is in place
+		if (config.jmxEnabled) {
+			registerMBeans();
+		}
+	}
+	
+	/**
+	 * Registers the dispatch and each of its regions with the platform MBean server, as
+	 * 		nuber.students:type=NuberDispatch,id=<n>
+	 * 		nuber.students:type=NuberRegion,dispatch=<n>,name=<region>
+	 * so several dispatches in one JVM never clash
+	 */
+	private void registerMBeans()
+	{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		int id = nextDispatchID.incrementAndGet();
+		try {
+			ObjectName dispatchName = new ObjectName("nuber.students:type=NuberDispatch,id=" + id);
+			server.registerMBean(new DispatchManagement(this), dispatchName);
+			mbeanNames.add(dispatchName);
+			for (NuberRegion region : regionHashMap.values()) {
+				ObjectName regionName = new ObjectName("nuber.students:type=NuberRegion,dispatch=" + id 
+						+ ",name=" + ObjectName.quote(region.getRegionName()));
+				server.registerMBean(new RegionManagement(this, region), regionName);
+				mbeanNames.add(regionName);
+			}
+		} catch (JMException e) {
+			System.out.println("Could not register Nuber Dispatch with JMX: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Removes the dispatch and its regions from the platform MBean server, once every region has finished
+	 */
+	private void unregisterMBeans()
+	{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName name : mbeanNames) {
+			try {
+				server.unregisterMBean(name);
+			} catch (JMException e) {
+				// already gone
+			}
+		}
+		mbeanNames.clear();
+	}
+	
+	private static DispatchConfig configWithMode(RegionExecutionMode executionMode)
+	{
+		DispatchConfig config = new DispatchConfig();
+		config.executionMode = executionMode;
+		return config;
 	}
 	
 	/**
@@ -47,12 +230,145 @@ public class NuberDispatch {
 	 *  
 	 * Must be able to have drivers added from multiple threads.
 	 * 
+	 * If bookings are already waiting for a driver, the driver is handed straight to the 
+	 * waiting booking with the highest (aged) priority instead of being queued.
+	 * 
+	 * When regions keep their own driver pools, new drivers are spread evenly between them.
+	 * 
+	 * The default ELASTIC driver pool has no limit on how many drivers it holds. A fixed size 
+	 * pool throws an IllegalStateException once it is full.
+	 * 
 	 * @param The driver to add to the queue.
 	 * @return Returns true if driver was added to the queue
 	 */
 	public boolean addDriver(Driver newDriver)
 	{
-		return driverQueue.add(newDriver);
+		if (newDriver.join(config.clock)) {
+			drivers.incrementAndGet();
+			joinedNanos.add(newDriver.getJoinedNanos());
+		}
+		int next = Math.floorMod(nextDriverPool.getAndIncrement(), allDriverPools.size());
+		return addDriver(newDriver, allDriverPools.get(next));
+	}
+	
+	/**
+	 * Adds a driver who has just finished a booking in the given region. When regions keep 
+	 * their own driver pools, the driver is kept in that region's pool.
+	 * 
+	 * @param newDriver The driver to add
+	 * @param region The name of the region the driver is in, may be null
+	 * @return Returns true if driver was added to the queue
+	 */
+	boolean addDriver(Driver newDriver, String region)
+	{
+		return addDriver(newDriver, poolFor(region));
+	}
+	
+	private boolean addDriver(Driver newDriver, DriverPool pool)
+	{
+		long busySince = newDriver.getBusySince();
+		long busyFor = newDriver.markIdle();
+		if (busyFor >= 0) {
+			busyDrivers.decrement();
+			busySinceNanos.add(-busySince);
+			finishedBusyNanos.add(busyFor);
+		}
+		Driver driver = newDriver;
+		while (true) {
+			if (!driverWaiters.isEmpty() && handToWaiter(driver)) {
+				return true;
+			}
+			if (!pool.offer(driver)) {
+				throw new IllegalStateException("Driver pool is full, could not add " + driver.name);
+			}
+			// a booking may have started waiting after we looked, and before the driver was queued
+			if (driverWaiters.isEmpty()) {
+				return true;
+			}
+			driver = pool.poll();
+			if (driver == null) {
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Hands a driver to the front waiter that is still waiting
+	 * 
+	 * @return true if a waiter took the driver
+	 */
+	private boolean handToWaiter(Driver driver)
+	{
+		DriverWaiter waiter;
+		String steeredRegion = rebalancer == null ? null : rebalancer.steerDriver();
+		if (steeredRegion != null) {
+			while ((waiter = takeFrontWaiter(steeredRegion)) != null) {
+				if (waiter.offer(driver)) {
+					rebalancer.driverSteered();
+					return true;
+				}
+			}
+		}
+		while ((waiter = driverWaiters.pollFirst()) != null) {
+			if (waiter.offer(driver)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Reserves the driver of a booking that has started travelling for the next booking 
+	 * waiting for a driver in the same region, if trip chaining is on. The reserved booking
+	 * leaves the waiter registry, so no other driver is handed to it, but keeps waiting and
+	 * can still give up before the driver arrives.
+	 * 
+	 * @param region The name of the travelling booking's region, may be null
+	 * @return The reserved booking, to pass to finishTrip() at drop off, or null if no 
+	 * 			booking was waiting in the region
+	 */
+	DriverWaiter reserveNextBooking(String region)
+	{
+		if (!config.tripChaining || batchMatcher != null || driverWaiters.isEmpty()) {
+			return null;
+		}
+		return takeFrontWaiter(region);
+	}
+	
+	/**
+	 * Takes the waiter first in priority order among those from one region out of the registry
+	 * 
+	 * @param region The name of the region, may be null
+	 * @return The waiter, or null if no booking in the region is waiting
+	 */
+	private DriverWaiter takeFrontWaiter(String region)
+	{
+		DriverWaiter waiter;
+		while ((waiter = driverWaiters.pollFirst(region)) != null) {
+			// a waiter that has already given up is just dropped
+			if (!waiter.isDone()) {
+				return waiter;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Called by a booking once its driver has dropped the passenger off. The driver goes 
+	 * straight on to the booking it was reserved for, or back to the idle drivers if there 
+	 * is none, or that booking has given up waiting.
+	 * 
+	 * @param driver The driver
+	 * @param region The name of the booking's region, may be null
+	 * @param reserved The booking reserved by reserveNextBooking(), may be null
+	 */
+	void finishTrip(Driver driver, String region, DriverWaiter reserved)
+	{
+		if (reserved != null && reserved.offer(driver)) {
+			chainedTrips.increment();
+			return;
+		}
+		addDriver(driver, region);
 	}
 	
 	/**
@@ -64,17 +380,518 @@ public class NuberDispatch {
 	 */
 	public Driver getDriver()
 	{
-		Driver driver = null;
-		bookingsAwaitingDriver.incrementAndGet();
+		return getDriver(BookingPriority.NORMAL);
+	}
+	
+	/**
+	 * Gets a driver from the front of the queue, waiting for one if none are idle.
+	 * 
+	 * Bookings waiting for a driver are served in order of priority, with aging so that low 
+	 * priority bookings are still served eventually.
+	 * 
+	 * @param priority The priority of the booking asking for a driver
+	 * @return A driver that has been removed from the queue, or null if interrupted while waiting
+	 */
+	public Driver getDriver(BookingPriority priority)
+	{
+		return getDriver(priority, 0, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Gets a driver from the front of the queue, waiting at most the given time for one if 
+	 * none are idle.
+	 * 
+	 * On machines with more than one core the queue is checked again a few times before 
+	 * the booking registers as a waiter and parks, since parking and being woken costs far 
+	 * more than a short spin when drivers are being freed all the time. A waiter parks on its
+	 * own handoff future, so a freed driver only ever wakes the one booking it is handed to.
+	 * 
+	 * @param priority The priority of the booking asking for a driver
+	 * @param timeout The longest time to wait, or 0 to wait for as long as it takes
+	 * @param unit The unit of the timeout
+	 * @return A driver that has been removed from the queue, or null if no driver came up 
+	 * 			in time, or the thread was interrupted while waiting
+	 */
+	public Driver getDriver(BookingPriority priority, long timeout, TimeUnit unit)
+	{
+		return getDriver(null, null, priority, timeout, unit);
+	}
+	
+	/**
+	 * Gets a driver for a booking in the given region, waiting at most the given time for one 
+	 * if none are idle.
+	 * 
+	 * If the idle drivers are kept in a SpatialDriverPool, the idle driver nearest to the 
+	 * passenger is chosen.
+	 * 
+	 * When regions keep their own driver pools, the region's own pool is tried first, then 
+	 * the pools of its neighbours, then the pools with the most idle drivers. Bookings that 
+	 * find no driver anywhere wait together, in priority order, for the next driver freed in 
+	 * any region.
+	 * 
+	 * With batch matching on, the booking always waits for the next batch, and is handed 
+	 * the driver the BatchMatcher assigns it.
+	 * 
+	 * @param region The name of the region asking, may be null
+	 * @param passenger The passenger the driver is for, may be null
+	 * @param priority The priority of the booking asking for a driver
+	 * @param timeout The longest time to wait, or 0 to wait for as long as it takes
+	 * @param unit The unit of the timeout
+	 * @return A driver, or null if no driver came up in time, or the thread was interrupted while waiting
+	 */
+	Driver getDriver(String region, Passenger passenger, BookingPriority priority, long timeout, TimeUnit unit)
+	{
+		Driver driver = awaitDriver(region, passenger, priority, timeout, unit);
+		if (driver != null) {
+			driverSelected(driver);
+		}
+		return driver;
+	}
+	
+	private Driver awaitDriver(String region, Passenger passenger, BookingPriority priority, long timeout, TimeUnit unit)
+	{
+		if (batchMatcher == null) {
+			Driver driver = pollDriver(region, passenger);
+			for (int i = 0; driver == null && i < driverSpinTries; i++) {
+				Thread.onSpinWait();
+				driver = pollDriver(region, passenger);
+			}
+			if (driver != null) {
+				immediateSelections.increment();
+				return driver;
+			}
+		}
+		DriverWaiter waiter = new DriverWaiter(priority.orderKey(config.clock.nanoTime(), priorityAgingNanos), region, passenger);
+		Driver driver = registerWaiter(waiter);
+		if (driver != null) {
+			return driver;
+		}
 		try {
-			driver = driverQueue.take();
+			if (timeout > 0 && config.clock != NuberClock.SYSTEM) {
+				// only the timer knows when the wait ends in simulated time
+				withdrawAfter(waiter, unit.toMillis(timeout));
+				return waiter.handoff.get();
+			}
+			if (timeout > 0) {
+				return waiter.handoff.get(timeout, unit);
+			}
+			return waiter.handoff.get();
 		} catch (InterruptedException e) {
-			System.out.println(e);
+			Thread.currentThread().interrupt();
+			return stopWaiting(waiter);
+		} catch (TimeoutException e) {
+			return stopWaiting(waiter);
+		} catch (CancellationException e) {
+			// withdrawn by the timer
+			return null;
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e);
 		}
-		bookingsAwaitingDriver.decrementAndGet();
-		return driver;
+	}
+	
+	/**
+	 * Asks for a driver for a booking in the given region, without holding the calling thread
+	 * while it waits.
+	 * 
+	 * If no driver is idle, the booking is added to the waiter registry, and the next driver
+	 * freed by addDriver() is handed straight to the waiter at the front, completing the 
+	 * returned future on the thread that freed the driver. Cancelling the future withdraws 
+	 * the booking from the registry.
+	 * 
+	 * @param region The name of the region asking, may be null
+	 * @param passenger The passenger the driver is for, may be null
+	 * @param priority The priority of the booking asking for a driver
+	 * @param maxWaitMillis The longest to wait, or 0 to wait for as long as it takes. If it 
+	 * 			passes, the future is cancelled.
+	 * @return A future completed with the driver
+	 */
+	CompletableFuture<Driver> requestDriver(String region, Passenger passenger, BookingPriority priority, long maxWaitMillis)
+	{
+		if (batchMatcher == null) {
+			Driver driver = pollDriver(region, passenger);
+			if (driver != null) {
+				immediateSelections.increment();
+				return CompletableFuture.completedFuture(driver);
+			}
+		}
+		DriverWaiter waiter = new DriverWaiter(priority.orderKey(config.clock.nanoTime(), priorityAgingNanos), region, passenger);
+		Driver driver = registerWaiter(waiter);
+		if (driver != null) {
+			return CompletableFuture.completedFuture(driver);
+		}
+		if (maxWaitMillis > 0) {
+			withdrawAfter(waiter, maxWaitMillis);
+		}
+		return waiter.handoff;
+	}
+	
+	/**
+	 * Withdraws a waiter once its maximum wait has passed on the dispatch's clock, unless it 
+	 * has been handed a driver by then, in which case the withdrawal is cancelled so it does
+	 * not sit in the timer for the rest of the wait
+	 */
+	private void withdrawAfter(DriverWaiter waiter, long maxWaitMillis)
+	{
+		try {
+			HashedWheelTimer.Timeout withdrawal = driverWaitTimer.schedule(waiter::withdraw, maxWaitMillis);
+			waiter.handoff.whenComplete((driver, error) -> withdrawal.cancel());
+		} catch (RejectedExecutionException e) {
+			// dispatch has finished, so nothing will be waiting long
+		}
+	}
+	
+	/**
+	 * Adds a waiter to the registry of bookings waiting for a driver. The waiter leaves the
+	 * registry by itself once it is handed a driver or withdraws.
+	 * 
+	 * @return null once the waiter is registered, or a driver that turned up while registering, 
+	 * 			in which case the waiter has been withdrawn and the driver belongs to the caller
+	 */
+	private Driver registerWaiter(DriverWaiter waiter)
+	{
+		AtomicInteger regionAwaiting = waiter.region == null ? null : regionBookingsAwaitingDriver.get(waiter.region);
+		bookingsAwaitingDriver.incrementAndGet();
+		if (regionAwaiting != null) {
+			regionAwaiting.incrementAndGet();
+		}
+		waiter.handoff.whenComplete((driver, error) -> {
+			bookingsAwaitingDriver.decrementAndGet();
+			if (regionAwaiting != null) {
+				regionAwaiting.decrementAndGet();
+			}
+			if (error != null) {
+				driverWaiters.remove(waiter);
+			}
+		});
+		if (batchMatcher != null) {
+			batchMatcher.addWaiter(waiter);
+			return null;
+		}
+		driverWaiters.add(waiter);
+		// a driver may have been queued after we looked, and before we started waiting
+		Driver driver = pollDriver(waiter.region, waiter.passenger);
+		if (driver != null) {
+			if (waiter.withdraw()) {
+				immediateSelections.increment();
+				return driver;
+			}
+			// we were handed one as well, so the spare goes back
+			addDriver(driver, waiter.region);
+		}
+		return null;
+	}
+	
+	/**
+	 * Withdraws a waiter that has given up on getting a driver
+	 * 
+	 * @return null, or the driver that reached the waiter before it could withdraw
+	 */
+	private Driver stopWaiting(DriverWaiter waiter)
+	{
+		// the timer may have withdrawn it already
+		if (waiter.withdraw() || waiter.handoff.isCancelled()) {
+			return null;
+		}
+		return waiter.handoff.getNow(null);
+	}
+	
+	/**
+	 * Records that a driver has been given to a booking and is now busy
+	 */
+	void driverSelected(Driver driver)
+	{
+		if (driver.markBusy()) {
+			busyDrivers.increment();
+			busySinceNanos.add(driver.getBusySince());
+		}
+		driverSelections.increment();
+	}
+	
+	/**
+	 * Opens a shared ride for a booking that has just got its driver, if ride pooling is on
+	 * 
+	 * @param lead The booking
+	 * @param driver The booking's driver
+	 * @return The ride, or null if ride pooling is off
+	 */
+	SharedRide openSharedRide(Booking lead, Driver driver)
+	{
+		if (config.rideCapacity <= 1) {
+			return null;
+		}
+		SharedRide ride = new SharedRide(this, lead, driver, config.rideCapacity, config.poolingMaxDistance);
+		openRides.computeIfAbsent(rideKey(lead), key -> new ConcurrentLinkedQueue<SharedRide>()).add(ride);
+		return ride;
+	}
+	
+	/**
+	 * Adds a booking to an open shared ride in its region that it fits into
+	 * 
+	 * @return The ride the booking joined, or null if there was none
+	 */
+	SharedRide joinSharedRide(Booking booking)
+	{
+		if (config.rideCapacity <= 1) {
+			return null;
+		}
+		ConcurrentLinkedQueue<SharedRide> rides = openRides.get(rideKey(booking));
+		if (rides == null) {
+			return null;
+		}
+		for (SharedRide ride : rides) {
+			if (ride.tryJoin(booking)) {
+				return ride;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Called by a shared ride once bookings can no longer join it
+	 */
+	void closeSharedRide(SharedRide ride)
+	{
+		for (ConcurrentLinkedQueue<SharedRide> rides : openRides.values()) {
+			if (rides.remove(ride)) {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Called by a shared ride that carried more than one passenger once everyone is dropped off
+	 * 
+	 * @param passengers How many passengers shared the ride
+	 * @param detourMillis How much longer, in total, the passengers spent in the car than they 
+	 * 			would have going straight to their destinations
+	 */
+	void sharedRideFinished(int passengers, double detourMillis)
+	{
+		sharedRides.increment();
+		pooledBookings.add(passengers);
+		this.detourMillis.add(detourMillis);
+	}
+	
+	private String rideKey(Booking booking)
+	{
+		return booking.getRegionName() == null ? "" : booking.getRegionName();
+	}
+	
+	/**
+	 * Gets the pool a driver in the given region should be kept in
+	 */
+	private DriverPool poolFor(String region)
+	{
+		if (regionDriverPools == null) {
+			return driverQueue;
+		}
+		DriverPool pool = region == null ? null : regionDriverPools.get(region);
+		if (pool == null) {
+			return allDriverPools.get(Math.floorMod(nextDriverPool.getAndIncrement(), allDriverPools.size()));
+		}
+		return pool;
+	}
+	
+	/**
+	 * Takes an idle driver for a booking in the given region, without waiting.
+	 * 
+	 * With regional pools the region's own pool is tried first, then its neighbours in the
+	 * order set in DispatchConfig.neighbours, then whichever pools hold the most idle drivers,
+	 * until every pool has been found empty.
+	 * 
+	 * @return A driver, or null if no pool has an idle driver
+	 */
+	Driver pollDriver(String region, Passenger passenger)
+	{
+		if (regionDriverPools == null) {
+			return take(driverQueue, passenger);
+		}
+		DriverPool local = region == null ? null : regionDriverPools.get(region);
+		if (local != null) {
+			Driver driver = take(local, passenger);
+			if (driver != null) {
+				return driver;
+			}
+			for (String neighbour : config.neighboursOf(region)) {
+				DriverPool pool = regionDriverPools.get(neighbour);
+				if (pool != null && (driver = take(pool, passenger)) != null) {
+					stolenDrivers.increment();
+					return driver;
+				}
+			}
+		}
+		while (true) {
+			DriverPool fullest = null;
+			int most = 0;
+			for (DriverPool pool : allDriverPools) {
+				int size = pool.size();
+				if (size > most) {
+					most = size;
+					fullest = pool;
+				}
+			}
+			if (fullest == null) {
+				return null;
+			}
+			Driver driver = take(fullest, passenger);
+			if (driver != null) {
+				if (fullest != local) {
+					stolenDrivers.increment();
+				}
+				return driver;
+			}
+		}
+	}
+	
+	/**
+	 * Takes the driver nearest to the passenger from a pool, or any driver if there is no passenger
+	 */
+	private Driver take(DriverPool pool, Passenger passenger)
+	{
+		return passenger == null ? pool.poll() : pool.pollNearest(passenger);
+	}
+	
+	/**
+	 * @return The number of drivers sitting idle, waiting for a booking
+	 */
+	public int getIdleDrivers()
+	{
+		int idle = 0;
+		for (DriverPool pool : allDriverPools) {
+			idle += pool.size();
+		}
+		return idle;
+	}
+	
+	/**
+	 * Gets the number of idle drivers in one region, when regions keep their own driver pools
+	 * 
+	 * @param region The name of the region
+	 * @return The region's idle drivers, or 0 if regions share one pool or the region does not exist
+	 */
+	public int getIdleDrivers(String region)
+	{
+		if (regionDriverPools == null || !regionDriverPools.containsKey(region)) {
+			return 0;
+		}
+		return regionDriverPools.get(region).size();
+	}
+	
+	/**
+	 * Measures how well the driver selection policy is using the drivers, from running totals
+	 * kept as drivers join, are given bookings and become idle again
+	 * 
+	 * @return A snapshot of driver utilization
+	 */
+	public DriverUtilization getDriverUtilization()
+	{
+		long now = config.clock.nanoTime();
+		int joined = drivers.get();
+		long busy = busyDrivers.sum();
+		long onDutyNanos = joined * now - joinedNanos.sum();
+		long busyNanos = finishedBusyNanos.sum() + busy * now - busySinceNanos.sum();
+		double utilization = onDutyNanos <= 0 ? 0 : Math.min(1, Math.max(0, (double) busyNanos / onDutyNanos));
+		return new DriverUtilization(config.driverSelectionPolicy.toString(), joined, (int) busy, driverSelections.sum(),
+				immediateSelections.sum(), utilization);
+	}
+	
+	/**
+	 * @return How many times a driver went straight from one booking to the next, through
+	 * 			trip chaining
+	 */
+	public long getChainedTrips()
+	{
+		return chainedTrips.sum();
+	}
+	
+	/**
+	 * @return How many times a booking took an idle driver from another region's pool
+	 */
+	public long getStolenDrivers()
+	{
+		return stolenDrivers.sum();
 	}
 
+	/**
+	 * @return The settings the dispatch and its regions were created with
+	 */
+	DispatchConfig getConfig()
+	{
+		return config;
+	}
+	
+	/**
+	 * @return How much waiting time one level of BookingPriority is worth
+	 */
+	long getPriorityAgingNanos()
+	{
+		return priorityAgingNanos;
+	}
+	
+	/**
+	 * Gets the timer that trips are scheduled on when running in TripMode.TIMER
+	 * 
+	 * @return The trip timer, or null if trips block their booking's thread
+	 */
+	HashedWheelTimer getTripTimer()
+	{
+		return tripTimer;
+	}
+	
+	/**
+	 * Gets the work-stealing pool shared by every region running in RegionExecutionMode.SHARED_POOL,
+	 * creating it on first use.
+	 * 
+	 * The pool has one worker per core. When workers block inside a booking the pool may add 
+	 * extra workers, but never more than SHARED_POOL_THREADS_PER_CORE per core, so the thread
+	 * count follows the machine and not the number of regions.
+	 * 
+	 * @return The shared pool
+	 */
+	synchronized ForkJoinPool getSharedPool()
+	{
+		if (sharedPool == null) {
+			int cores = Runtime.getRuntime().availableProcessors();
+			sharedPool = new ForkJoinPool(cores, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true,
+					0, cores * SHARED_POOL_THREADS_PER_CORE, 1, pool -> true, 60, TimeUnit.SECONDS);
+		}
+		return sharedPool;
+	}
+	
+	/**
+	 * Called by a region once it has been shutdown and has finished all of its bookings.
+	 * When the last region is done, the trip timer and shared pool are stopped.
+	 * 
+	 * @param region The region that has finished
+	 */
+	void regionTerminated(NuberRegion region)
+	{
+		if (regionHashMap.get(region.getRegionName()) != region) {
+			return;
+		}
+		if (runningRegions.decrementAndGet() > 0) {
+			return;
+		}
+		if (tripTimer != null) {
+			tripTimer.stop();
+		}
+		if (driverWaitTimer != null) {
+			driverWaitTimer.stop();
+		}
+		if (batchMatcher != null) {
+			batchMatcher.stop();
+		}
+		if (rebalancer != null) {
+			rebalancer.stop();
+		}
+		synchronized (this) {
+			unregisterMBeans();
+			if (sharedPool != null) {
+				sharedPool.shutdown();
+			}
+		}
+	}
+	
 	/**
 	 * Prints out the string
 	 * 	    booking + ": " + message
@@ -104,11 +921,213 @@ public class NuberDispatch {
 	 * @return returns a Future<BookingResult> object
 	 */
 	public Future<BookingResult> bookPassenger(Passenger passenger, String region) {
+		return bookPassenger(passenger, region, BookingPriority.NORMAL);
+	}
+	
+	/**
+	 * Books a given passenger into a given Nuber region with the given priority.
+	 * 
+	 * Higher priority bookings are started by the region, and handed drivers, ahead of 
+	 * lower priority ones that have not been waiting long enough to catch up.
+	 * 
+	 * @param passenger The passenger to book
+	 * @param region The region to book them into
+	 * @param priority How urgently the booking should be served
+	 * @return returns a Future<BookingResult> object, or null if dispatch is shutdown
+	 */
+	public Future<BookingResult> bookPassenger(Passenger passenger, String region, BookingPriority priority) {
+		return bookPassenger(passenger, region, priority, config.maxDriverWaitMillis);
+	}
+	
+	/**
+	 * Books a given passenger into a given Nuber region with the given priority, and a limit on 
+	 * how long the booking will wait for a driver.
+	 * 
+	 * If no driver becomes available in time, the booking finishes with a BookingResult whose
+	 * status is EXPIRED, and frees its position in the region for the next booking.
+	 * 
+	 * @param passenger The passenger to book
+	 * @param region The region to book them into
+	 * @param priority How urgently the booking should be served
+	 * @param maxDriverWaitMillis The longest the booking waits for a driver, or 0 to wait for as long as it takes
+	 * @return returns a Future<BookingResult> object, or null if dispatch is shutdown or the 
+	 * 			region does not exist
+	 */
+	public Future<BookingResult> bookPassenger(Passenger passenger, String region, BookingPriority priority,
+			long maxDriverWaitMillis) {
 		if (shutdown) {
+			BookingEvents.rejected(0, region, RejectionReason.SHUTDOWN);
 			return null;
 		}
 		NuberRegion nuberRegion = regionHashMap.get(region);
-		return nuberRegion.bookPassenger(passenger);
+		if (nuberRegion == null) {
+			BookingEvents.rejected(0, region, RejectionReason.UNKNOWN_REGION);
+			return null;
+		}
+		return nuberRegion.bookPassenger(passenger, priority, maxDriverWaitMillis);
+	}
+
+	/**
+	 * Books a given passenger into a given Nuber region, without the caller having to block
+	 * or poll for the result.
+	 * 
+	 * The returned stage completes directly when the booking finishes, so handling of the 
+	 * result can be chained onto it. It is completed on one of the region's threads, so stages
+	 * chained onto it without an executor run there, and never hold up the trip timer.
+	 * 
+	 * If dispatch has been asked to shutdown, or the region does not exist, the stage is 
+	 * completed exceptionally with a BookingRejectedException.
+	 * 
+	 * @param passenger The passenger to book
+	 * @param region The region to book them into
+	 * @return a stage that completes with the BookingResult of the finished booking
+	 */
+	public CompletionStage<BookingResult> bookPassengerAsync(Passenger passenger, String region) {
+		return bookPassengerAsync(passenger, region, BookingPriority.NORMAL);
+	}
+	
+	/**
+	 * Books a given passenger into a given Nuber region with the given priority, without
+	 * the caller having to block or poll for the result.
+	 * 
+	 * @param passenger The passenger to book
+	 * @param region The region to book them into
+	 * @param priority How urgently the booking should be served
+	 * @return a stage that completes with the BookingResult of the finished booking
+	 */
+	public CompletionStage<BookingResult> bookPassengerAsync(Passenger passenger, String region, BookingPriority priority) {
+		return bookPassengerAsync(passenger, region, priority, config.maxDriverWaitMillis);
+	}
+	
+	/**
+	 * Books a given passenger into a given Nuber region with the given priority and maximum
+	 * wait for a driver, without the caller having to block or poll for the result.
+	 * 
+	 * @param passenger The passenger to book
+	 * @param region The region to book them into
+	 * @param priority How urgently the booking should be served
+	 * @param maxDriverWaitMillis The longest the booking waits for a driver, or 0 to wait for as long as it takes
+	 * @return a stage that completes with the BookingResult of the finished booking
+	 */
+	public CompletionStage<BookingResult> bookPassengerAsync(Passenger passenger, String region, BookingPriority priority,
+			long maxDriverWaitMillis) {
+		if (shutdown) {
+			BookingEvents.rejected(0, region, RejectionReason.SHUTDOWN);
+			return CompletableFuture.failedFuture(new BookingRejectedException(RejectionReason.SHUTDOWN,
+					"Dispatch is shutdown, rejected the booking of " + passenger.name));
+		}
+		NuberRegion nuberRegion = regionHashMap.get(region);
+		if (nuberRegion == null) {
+			BookingEvents.rejected(0, region, RejectionReason.UNKNOWN_REGION);
+			return CompletableFuture.failedFuture(new BookingRejectedException(RejectionReason.UNKNOWN_REGION,
+					"There is no region called " + region));
+		}
+		return nuberRegion.bookPassengerAsync(passenger, priority, maxDriverWaitMillis);
+	}
+
+	/**
+	 * Cancels a booking, whatever phase it has reached. A queued booking leaves its region's 
+	 * queue, a booking waiting for a driver stops waiting, and a booking on its way has its
+	 * trip cut short, with its driver going straight back to the idle queue. The booking's 
+	 * future is cancelled.
+	 * 
+	 * @param jobID The ID of the booking to cancel
+	 * @return true if the booking was cancelled, false if it had already finished or does not exist
+	 */
+	public boolean cancelBooking(int jobID)
+	{
+		BookingFuture future = liveBookings.get(jobID);
+		return future != null && future.cancel(true);
+	}
+	
+	/**
+	 * Cancels the booking behind a handle returned by bookPassenger(), the same way as 
+	 * cancelBooking(int). For a stage returned by bookPassengerAsync(), pass in 
+	 * stage.toCompletableFuture().
+	 * 
+	 * @param booking The Future returned when the booking was made
+	 * @return true if the booking was cancelled, false if it had already finished
+	 */
+	public boolean cancelBooking(Future<BookingResult> booking)
+	{
+		return booking != null && booking.cancel(true);
+	}
+	
+	/**
+	 * Keeps track of a booking accepted by a region until it finishes, so it can be cancelled by ID
+	 */
+	void trackBooking(BookingFuture future)
+	{
+		int jobID = future.booking.getJobID();
+		liveBookings.put(jobID, future);
+		future.whenComplete((result, error) -> liveBookings.remove(jobID));
+	}
+
+	/**
+	 * Gets the matcher that assigns drivers to bookings in batches, for example to check how
+	 * much pickup time it has saved
+	 * 
+	 * @return The batch matcher, or null if batch matching is off
+	 */
+	public BatchMatcher getBatchMatcher()
+	{
+		return batchMatcher;
+	}
+
+	/**
+	 * Gets the rebalancer that steers freed drivers towards the regions with the most bookings
+	 * waiting, for example to check whether it is steering
+	 * 
+	 * @return The rebalancer, or null if rebalancing is off
+	 */
+	public DriverRebalancer getRebalancer()
+	{
+		return rebalancer;
+	}
+
+	/**
+	 * Gets the registry that reports live metrics for the dispatch and each of its regions
+	 * 
+	 * @return The metrics registry
+	 */
+	public MetricsRegistry getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * @return All of the dispatch's regions
+	 */
+	public Collection<NuberRegion> getRegions()
+	{
+		return regionHashMap.values();
+	}
+	
+	/**
+	 * Gets a percentile of the time completed bookings took, from being created to their
+	 * passenger arriving, across ALL regions, to within an eighth
+	 * 
+	 * @param percentile The percentile, between 0 and 100
+	 * @return The percentile in milliseconds, or 0 if no booking has completed
+	 */
+	public double getLatencyPercentileMillis(double percentile)
+	{
+		ArrayList<LatencyHistogram> histograms = new ArrayList<LatencyHistogram>();
+		for (NuberRegion region : regionHashMap.values()) {
+			histograms.add(region.getLatencies());
+		}
+		return LatencyHistogram.percentile(histograms, percentile) / 1e6;
+	}
+
+	/**
+	 * Gets one of the dispatch's regions, for example to check its current concurrency limit
+	 * 
+	 * @param region The name of the region
+	 * @return The region, or null if the dispatch has no region with that name
+	 */
+	public NuberRegion getRegion(String region)
+	{
+		return regionHashMap.get(region);
 	}
 
 	/**
@@ -116,6 +1135,10 @@ public class NuberDispatch {
 	 * 
 	 * Once a driver is given to a booking, the value in this counter should be reduced by one
 	 * 
+	 * This is the number of waiters in the registry of bookings waiting for a driver, which 
+	 * leave it as soon as they are handed a driver or give up. Bookings that find an idle 
+	 * driver straight away never wait, so are never counted.
+	 * 
 	 * @return Number of bookings awaiting driver, across ALL regions
 	 */
 	public int getBookingsAwaitingDriver()
@@ -123,6 +1146,69 @@ public class NuberDispatch {
 		return bookingsAwaitingDriver.get();
 	}
 	
+	/**
+	 * Gets the number of bookings in one region that are awaiting a driver from dispatch
+	 * 
+	 * @param region The name of the region
+	 * @return Number of bookings awaiting a driver in the region, or 0 if the region does not exist
+	 */
+	public int getBookingsAwaitingDriver(String region)
+	{
+		AtomicInteger awaiting = regionBookingsAwaitingDriver.get(region);
+		return awaiting == null ? 0 : awaiting.get();
+	}
+	
+	/**
+	 * @return Bookings that got their passenger to the destination, across ALL regions
+	 */
+	public long getCompletedBookings()
+	{
+		long completed = 0;
+		for (var region : regionHashMap.values()) {
+			completed += region.getCompletedBookings();
+		}
+		return completed;
+	}
+	
+	/**
+	 * @return Bookings that expired waiting for a driver, across ALL regions
+	 */
+	public long getExpiredBookings()
+	{
+		long expired = 0;
+		for (var region : regionHashMap.values()) {
+			expired += region.getExpiredBookings();
+		}
+		return expired;
+	}
+	
+	/**
+	 * @return Rides that carried more than one passenger
+	 */
+	public long getSharedRides()
+	{
+		return sharedRides.sum();
+	}
+	
+	/**
+	 * @return The share of completed bookings whose passenger shared a ride, between 0 and 1
+	 */
+	public double getPoolingRate()
+	{
+		long completed = getCompletedBookings();
+		return completed == 0 ? 0 : (double) pooledBookings.sum() / completed;
+	}
+	
+	/**
+	 * @return How much longer, on average, a passenger in a shared ride spent in the car than
+	 * 			they would have going straight to their destination
+	 */
+	public double getAverageDetourMillis()
+	{
+		long pooled = pooledBookings.sum();
+		return pooled == 0 ? 0 : detourMillis.sum() / pooled;
+	}
+	
 	/**
 	 * Tells all regions to finish existing bookings already allocated, and stop accepting new bookings
 	 */
@@ -133,4 +1219,92 @@ public class NuberDispatch {
 		shutdown = true;
 	}
 
+	/**
+	 * Forces every region to stop, handing back the bookings that were accepted but never 
+	 * started, and cancelling the bookings that are under way.
+	 * 
+	 * @return The bookings that never started, across all regions
+	 */
+	public List<Booking> shutdownNow() {
+		shutdown = true;
+		List<Booking> unstarted = new ArrayList<Booking>();
+		for (var region : regionHashMap.values()) {
+			unstarted.addAll(region.shutdownNow());
+		}
+		return unstarted;
+	}
+	
+	/**
+	 * Waits for every region to finish the bookings it accepted, after dispatch has been shutdown
+	 * 
+	 * @param timeout The longest time to wait, across all regions
+	 * @param unit The unit of the timeout
+	 * @return true if all regions finished, false if the timeout passed first
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (var region : regionHashMap.values()) {
+			if (!region.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Shuts down dispatch and waits for the bookings already accepted to finish, within a fixed
+	 * time budget. If the budget runs out, dispatch is forced to stop with shutdownNow(), so 
+	 * the drain never takes much longer than the timeout.
+	 * 
+	 * While waiting, progress is reported to the listener every DispatchConfig.drainProgressIntervalMillis,
+	 * and once more when the drain ends.
+	 * 
+	 * @param timeout The time budget for the drain
+	 * @param unit The unit of the timeout
+	 * @param progressListener Receives progress reports, may be null
+	 * @return The bookings that never started, which is empty if everything finished in time
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public List<Booking> drain(long timeout, TimeUnit unit, Consumer<DrainProgress> progressListener) throws InterruptedException {
+		long start = System.nanoTime();
+		long deadline = start + unit.toNanos(timeout);
+		long interval = TimeUnit.MILLISECONDS.toNanos(Math.max(1, config.drainProgressIntervalMillis));
+		shutdown();
+		List<Booking> unstarted = new ArrayList<Booking>();
+		while (true) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				unstarted = shutdownNow();
+				break;
+			}
+			if (awaitTermination(Math.min(interval, remaining), TimeUnit.NANOSECONDS)) {
+				break;
+			}
+			reportDrainProgress(progressListener, start, deadline);
+		}
+		reportDrainProgress(progressListener, start, deadline);
+		return unstarted;
+	}
+	
+	private void reportDrainProgress(Consumer<DrainProgress> progressListener, long start, long deadline)
+	{
+		if (progressListener == null) {
+			return;
+		}
+		int queued = 0;
+		int active = 0;
+		int terminated = 0;
+		for (var region : regionHashMap.values()) {
+			queued += region.getQueuedBookings();
+			active += region.getActiveBookings();
+			if (region.isTerminated()) {
+				terminated++;
+			}
+		}
+		long now = System.nanoTime();
+		progressListener.accept(new DrainProgress(queued, active, terminated,
+				TimeUnit.NANOSECONDS.toMillis(now - start), TimeUnit.NANOSECONDS.toMillis(Math.max(0, deadline - now))));
+	}
+
 }
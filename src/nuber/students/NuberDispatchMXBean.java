@@ -0,0 +1,78 @@
+package nuber.students;
+
+/**
+ * The management interface of a NuberDispatch, registered with the platform MBean server
+ * when DispatchConfig.jmxEnabled is set.
+ * 
+ * Every attribute is read from counters and atomics, so reading it never waits on a lock 
+ * that bookings take.
+ */
+public interface NuberDispatchMXBean {
+
+	/**
+	 * @return The number of drivers sitting idle, waiting for a booking
+	 */
+	int getIdleDrivers();
+
+	/**
+	 * @return The number of bookings waiting for a driver, across ALL regions
+	 */
+	int getBookingsAwaitingDriver();
+
+	/**
+	 * @return The number of bookings holding a permit, across ALL regions
+	 */
+	int getActiveBookings();
+
+	/**
+	 * @return The number of accepted bookings waiting for a free position, across ALL regions
+	 */
+	int getQueuedBookings();
+
+	/**
+	 * @return Bookings that got their passenger to the destination, across ALL regions
+	 */
+	long getCompletedBookings();
+
+	/**
+	 * @return Bookings that expired waiting for a driver, across ALL regions
+	 */
+	long getExpiredBookings();
+
+	/**
+	 * @return The median time completed bookings took from being created to finishing
+	 */
+	double getLatencyP50Millis();
+
+	/**
+	 * @return The 95th percentile of the time completed bookings took
+	 */
+	double getLatencyP95Millis();
+
+	/**
+	 * @return The 99th percentile of the time completed bookings took
+	 */
+	double getLatencyP99Millis();
+
+	/**
+	 * @return true while a drain started through drain() is running
+	 */
+	boolean isDraining();
+
+	/**
+	 * Changes how many bookings a region may have active at once
+	 * 
+	 * @param region The name of the region
+	 * @param maxSimultaneousJobs The new maximum, at least 1
+	 */
+	void setRegionConcurrency(String region, int maxSimultaneousJobs);
+
+	/**
+	 * Starts draining the dispatch in the background, with NuberDispatch.drain(), and returns
+	 * straight away. Progress can be followed through the queued and active bookings.
+	 * 
+	 * @param timeoutMillis The time budget for the drain
+	 */
+	void drain(long timeoutMillis);
+
+}
@@ -1,9 +1,28 @@
 package nuber.students;
 
-import java.util.concurrent.Callable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A single Nuber region that operates independently of other regions, other than getting 
@@ -14,7 +33,12 @@ import java.util.concurrent.Future;
  * active count, the booking is accepted, but must wait until a position is available, and 
  * a driver is available.
  * 
- * Bookings do NOT have to be completed in FIFO order.
+ * The active count is enforced with permits from a ConcurrencyLimiter rather than by the size 
+ * of a thread pool, so the region's RegionExecutionMode is free to decide which threads actually 
+ * run the bookings. With an adaptive limiter, maxSimultaneousJobs is the most the limit can reach.
+ * 
+ * Bookings do NOT have to be completed in FIFO order. Queued bookings are started in order
+ * of their BookingPriority, aged by how long they have been waiting.
  * 
  * @author james
  *
@@ -23,8 +47,36 @@ public class NuberRegion {
 	
 	private NuberDispatch dispatch;
 	private String regionName;
+	private volatile int maxSimultaneousJobs;
+	private RegionExecutionMode executionMode;
 	private ExecutorService executor;
-	private boolean shutdown = false;
+	private boolean ownsExecutor = true;
+	private ConcurrencyLimiter limiter;
+	private Queue<BookingFuture> pendingBookings = new PriorityBlockingQueue<BookingFuture>(11,
+			Comparator.comparingLong((BookingFuture future) -> future.booking.getQueueOrderKey())
+					  .thenComparingInt(future -> future.booking.getJobID()));
+	private Semaphore queueSlots;
+	private OverflowPolicy overflowPolicy;
+	private long admissionTimeoutMillis;
+	private LongAdder acceptedBookings = new LongAdder();
+	private LongAdder completedBookings = new LongAdder();
+	private LongAdder expiredBookings = new LongAdder();
+	private LongAdder cancelledBookings = new LongAdder();
+	/**
+	 * Every booking turned away or dropped before it started, counted once whatever the reason
+	 */
+	private LongAdder rejectedBookings = new LongAdder();
+	private EnumMap<RejectionReason, LongAdder> rejectionsByReason =
+			new EnumMap<RejectionReason, LongAdder>(RejectionReason.class);
+	private LongAdder blockedBookings = new LongAdder();
+	private LongAdder redirectedBookings = new LongAdder();
+	private AtomicInteger queuedBookings = new AtomicInteger(0);
+	private LatencyHistogram latencies = new LatencyHistogram();
+	private NuberClock clock;
+	private volatile boolean shutdown = false;
+	private Set<BookingFuture> activeBookings = ConcurrentHashMap.newKeySet();
+	private AtomicBoolean terminated = new AtomicBoolean(false);
+	private CountDownLatch terminationLatch = new CountDownLatch(1);
 	
 	/**
 	 * Creates a new Nuber region
@@ -34,11 +86,87 @@ public class NuberRegion {
 	 * @param maxSimultaneousJobs The maximum number of simultaneous bookings the region is allowed to process
 	 */
 	public NuberRegion(NuberDispatch dispatch, String regionName, int maxSimultaneousJobs)
+	{
+		this(dispatch, regionName, maxSimultaneousJobs, RegionExecutionMode.FIXED_POOL);
+	}
+	
+	/**
+	 * Creates a new Nuber region that runs its bookings using the given execution mode
+	 * 
+	 * @param dispatch The central dispatch to use for obtaining drivers, and logging events
+	 * @param regionName The regions name, unique for the dispatch instance
+	 * @param maxSimultaneousJobs The maximum number of simultaneous bookings the region is allowed to process
+	 * @param executionMode The kind of threads used to run active bookings
+	 */
+	public NuberRegion(NuberDispatch dispatch, String regionName, int maxSimultaneousJobs, RegionExecutionMode executionMode)
+	{
+		this(dispatch, regionName, maxSimultaneousJobs, executionMode, new FixedLimiter(maxSimultaneousJobs));
+	}
+	
+	/**
+	 * Creates a new Nuber region whose number of active bookings is decided by the given limiter
+	 * 
+	 * @param dispatch The central dispatch to use for obtaining drivers, and logging events
+	 * @param regionName The regions name, unique for the dispatch instance
+	 * @param maxSimultaneousJobs The most bookings the limiter will ever allow at once
+	 * @param executionMode The kind of threads used to run active bookings
+	 * @param limiter Decides how many bookings may be active at any time
+	 */
+	public NuberRegion(NuberDispatch dispatch, String regionName, int maxSimultaneousJobs, RegionExecutionMode executionMode,
+			ConcurrencyLimiter limiter)
 	{
 		this.dispatch = dispatch;
 		this.regionName = regionName;
-		executor = Executors.newFixedThreadPool(maxSimultaneousJobs);
-		System.out.println("Creating Nuber region for " + regionName);
+		this.maxSimultaneousJobs = maxSimultaneousJobs;
+		this.executionMode = executionMode;
+		this.limiter = limiter;
+		DispatchConfig config = dispatch.getConfig();
+		clock = config.clock;
+		if (config.regionQueueCapacity > 0) {
+			queueSlots = new Semaphore(config.regionQueueCapacity);
+		}
+		overflowPolicy = config.overflowPolicy;
+		admissionTimeoutMillis = config.admissionTimeoutMillis;
+		for (RejectionReason reason : RejectionReason.values()) {
+			rejectionsByReason.put(reason, new LongAdder());
+		}
+		switch (executionMode) {
+		case VIRTUAL_THREADS:
+			executor = newVirtualThreadExecutor();
+			if (executor == null) {
+				System.out.println("WARNING: virtual threads need Java 21 or later, so region " + regionName 
+						+ " runs its bookings on a fixed pool of " + maxSimultaneousJobs + " threads instead");
+				this.executionMode = RegionExecutionMode.FIXED_POOL;
+				executor = Executors.newFixedThreadPool(maxSimultaneousJobs);
+			}
+			break;
+		case SHARED_POOL:
+			executor = dispatch.getSharedPool();
+			ownsExecutor = false;
+			break;
+		default:
+			executor = Executors.newFixedThreadPool(maxSimultaneousJobs);
+			break;
+		}
+		System.out.println("Creating Nuber region for " + regionName + " (" + this.executionMode + ")");
+	}
+	
+	/**
+	 * Creates an executor that starts a new virtual thread for each booking.
+	 * 
+	 * Virtual threads are only available from Java 21, so they are looked up reflectively, 
+	 * letting the region still be built and run on older JVMs.
+	 * 
+	 * @return An executor for running bookings, or null if the JVM has no virtual threads
+	 */
+	private static ExecutorService newVirtualThreadExecutor()
+	{
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException | UnsupportedOperationException e) {
+			return null;
+		}
 	}
 	
 	/**
@@ -54,21 +182,780 @@ public class NuberRegion {
 	 */
 	public Future<BookingResult> bookPassenger(Passenger waitingPassenger)
 	{		
+		return bookPassenger(waitingPassenger, BookingPriority.NORMAL);
+	}
+	
+	/**
+	 * Books a passenger the same way as bookPassenger(), but with the given priority. 
+	 * Queued bookings are started in order of their aged priority rather than FIFO.
+	 * 
+	 * If the region has a bounded admission queue and it is full, the region's OverflowPolicy
+	 * decides what happens, and a booking that is not admitted gets back a Future that fails 
+	 * with a BookingRejectedException giving the reason.
+	 * 
+	 * @param waitingPassenger
+	 * @param priority How urgently the booking should be started, and given a driver
+	 * @return a Future that will provide the final BookingResult object from the completed booking
+	 */
+	public Future<BookingResult> bookPassenger(Passenger waitingPassenger, BookingPriority priority)
+	{
+		return bookPassenger(waitingPassenger, priority, dispatch.getConfig().maxDriverWaitMillis);
+	}
+	
+	/**
+	 * Books a passenger the same way as bookPassenger(), with the given priority, and a limit on
+	 * how long the booking waits for a driver once it has started. A booking that reaches the 
+	 * limit finishes with an EXPIRED BookingResult and gives its position up to the next booking.
+	 * 
+	 * @param waitingPassenger
+	 * @param priority How urgently the booking should be started, and given a driver
+	 * @param maxDriverWaitMillis The longest the booking waits for a driver, or 0 to wait for as long as it takes
+	 * @return a Future that will provide the final BookingResult object from the completed booking
+	 */
+	public Future<BookingResult> bookPassenger(Passenger waitingPassenger, BookingPriority priority, long maxDriverWaitMillis)
+	{
 		if (shutdown) {
 			System.out.println("region" + regionName + ": is shutdown, rejects the booking of " + waitingPassenger.name);
+			countRejection(null, RejectionReason.SHUTDOWN);
 			return null;
 		}
-		Booking booking = new Booking(dispatch, waitingPassenger);
+		return admit(createBooking(waitingPassenger, priority, maxDriverWaitMillis), true);
+	}
+	
+	/**
+	 * Books a passenger the same way as bookPassenger(), but returns a stage that completes
+	 * as soon as the booking finishes, so results can be handled without blocking a thread.
+	 * 
+	 * The stage is always completed on one of the region's threads, never on the dispatch's
+	 * timer thread, so slow stages chained onto it only hold up the region's own bookings.
+	 * 
+	 * If the region has been told to shutdown, the returned stage is completed exceptionally
+	 * with a BookingRejectedException instead of null being returned.
+	 * 
+	 * @param waitingPassenger
+	 * @return a stage that completes with the BookingResult of the finished booking
+	 */
+	public CompletionStage<BookingResult> bookPassengerAsync(Passenger waitingPassenger)
+	{
+		return bookPassengerAsync(waitingPassenger, BookingPriority.NORMAL);
+	}
+	
+	/**
+	 * Books a passenger the same way as bookPassengerAsync(), but with the given priority
+	 * 
+	 * @param waitingPassenger
+	 * @param priority How urgently the booking should be started, and given a driver
+	 * @return a stage that completes with the BookingResult of the finished booking
+	 */
+	public CompletionStage<BookingResult> bookPassengerAsync(Passenger waitingPassenger, BookingPriority priority)
+	{
+		return bookPassengerAsync(waitingPassenger, priority, dispatch.getConfig().maxDriverWaitMillis);
+	}
+	
+	/**
+	 * Books a passenger the same way as bookPassengerAsync(), with the given priority and
+	 * maximum wait for a driver
+	 * 
+	 * @param waitingPassenger
+	 * @param priority How urgently the booking should be started, and given a driver
+	 * @param maxDriverWaitMillis The longest the booking waits for a driver, or 0 to wait for as long as it takes
+	 * @return a stage that completes with the BookingResult of the finished booking
+	 */
+	public CompletionStage<BookingResult> bookPassengerAsync(Passenger waitingPassenger, BookingPriority priority,
+			long maxDriverWaitMillis)
+	{
+		if (shutdown) {
+			System.out.println("region" + regionName + ": is shutdown, rejects the booking of " + waitingPassenger.name);
+			countRejection(null, RejectionReason.SHUTDOWN);
+			return CompletableFuture.failedFuture(new BookingRejectedException(RejectionReason.SHUTDOWN,
+					"Region " + regionName + " is shutdown, rejected the booking of " + waitingPassenger.name));
+		}
+		return admit(createBooking(waitingPassenger, priority, maxDriverWaitMillis), true);
+	}
+	
+	/**
+	 * Creates a new booking for this region, with its place in the queue fixed from now
+	 */
+	private Booking createBooking(Passenger waitingPassenger, BookingPriority priority, long maxDriverWaitMillis)
+	{
+		Booking booking = new Booking(dispatch, waitingPassenger, priority, maxDriverWaitMillis);
 		dispatch.logEvent(booking, "is created in region " + regionName);
-		Callable<BookingResult> callableTaskCallable = new Callable<BookingResult>() {
-			@Override
-			public BookingResult call() throws Exception {
-				BookingResult result = booking.call();
-				dispatch.logEvent(booking, "finished in region " + regionName);
-				return result;
+		BookingEvents.created(booking, regionName);
+		booking.setQueueOrderKey(priority.orderKey(clock.nanoTime(), dispatch.getPriorityAgingNanos()));
+		return booking;
+	}
+	
+	/**
+	 * Takes a place in the region's admission queue for the booking, applying the overflow 
+	 * policy if the queue is full, and queues it until the region has a position available
+	 * 
+	 * @param booking The booking to admit
+	 * @param mayRedirect Whether the booking may be passed on to a neighbouring region
+	 * @return the future that the region completes when the booking finishes, or a failed 
+	 * 			future if the booking was not admitted
+	 */
+	private CompletableFuture<BookingResult> admit(Booking booking, boolean mayRedirect)
+	{
+		if (queueSlots != null && !queueSlots.tryAcquire()) {
+			switch (overflowPolicy) {
+			case SHED_OLDEST:
+				if (!shedFor(booking)) {
+					return reject(booking, RejectionReason.SHED, "was shed, as everything queued is more urgent");
+				}
+				break;
+			case BLOCK:
+				blockedBookings.increment();
+				if (!waitForQueueSlot()) {
+					return reject(booking, RejectionReason.QUEUE_TIMEOUT, "timed out waiting for room in the queue");
+				}
+				break;
+			case REDIRECT:
+				if (mayRedirect) {
+					CompletableFuture<BookingResult> redirected = redirect(booking);
+					if (redirected != null) {
+						return redirected;
+					}
+				}
+				return reject(booking, RejectionReason.QUEUE_FULL, "was rejected, as this region and its neighbours are full");
+			default:
+				return reject(booking, RejectionReason.QUEUE_FULL, "was rejected, as the queue is full");
+			}
+		}
+		return enqueue(booking);
+	}
+	
+	/**
+	 * Queues a booking that already holds a place in the admission queue
+	 * 
+	 * @return the future that the region completes when the booking finishes
+	 */
+	private BookingFuture enqueue(Booking booking)
+	{
+		BookingFuture future = new BookingFuture(booking, this);
+		booking.setRegionName(regionName);
+		acceptedBookings.increment();
+		queuedBookings.incrementAndGet();
+		dispatch.trackBooking(future);
+		pendingBookings.add(future);
+		startPendingBookings();
+		return future;
+	}
+	
+	/**
+	 * Accounts for a booking leaving the queue. A cancelled booking is left in the queue to be
+	 * skipped when it reaches the front, rather than searched for, so cancelling many bookings
+	 * at once stays cheap while its place in the queue is still given back straight away.
+	 * 
+	 * @param future The booking leaving the queue
+	 * @param releaseSlot Whether its place in a bounded admission queue should be given back
+	 * @return false if the booking had already left the queue
+	 */
+	private boolean leaveQueue(BookingFuture future, boolean releaseSlot)
+	{
+		if (!future.markDequeued()) {
+			return false;
+		}
+		queuedBookings.decrementAndGet();
+		if (releaseSlot && queueSlots != null) {
+			queueSlots.release();
+		}
+		return true;
+	}
+	
+	/**
+	 * Called by a BookingFuture once it has been cancelled. If the booking had not started,
+	 * it leaves the queue here, otherwise the cancelled booking is accounted for when it stops.
+	 */
+	void bookingCancelled(BookingFuture future)
+	{
+		if (leaveQueue(future, true)) {
+			cancelledBookings.increment();
+			dispatch.logEvent(future.booking, "was cancelled while queued in region " + regionName);
+			shutdownExecutorIfIdle();
+		}
+	}
+	
+	private CompletableFuture<BookingResult> reject(Booking booking, RejectionReason reason, String message)
+	{
+		dispatch.logEvent(booking, message + " in region " + regionName);
+		countRejection(booking, reason);
+		return CompletableFuture.failedFuture(new BookingRejectedException(reason,
+				"Booking " + booking + " " + message + " in region " + regionName));
+	}
+	
+	/**
+	 * Counts a booking turned away or dropped before it started, and reports it.
+	 * Every rejection in the region, whatever the reason, goes through here.
+	 * 
+	 * @param booking The booking, or null if it was turned away before one was made
+	 * @param reason Why it was rejected
+	 */
+	private void countRejection(Booking booking, RejectionReason reason)
+	{
+		rejectedBookings.increment();
+		rejectionsByReason.get(reason).increment();
+		BookingEvents.rejected(booking == null ? 0 : booking.getJobID(), regionName, reason);
+	}
+	
+	/**
+	 * Drops the oldest of the lowest priority queued bookings to make room for a new booking,
+	 * handing its place in the admission queue over to the new booking
+	 * 
+	 * @return false if the new booking should be shed instead
+	 */
+	private boolean shedFor(Booking booking)
+	{
+		while (true) {
+			BookingFuture victim = null;
+			for (BookingFuture queued : pendingBookings) {
+				if (queued.isDone()) {
+					continue;
+				}
+				if (victim == null || isBetterToShed(queued.booking, victim.booking)) {
+					victim = queued;
+				}
+			}
+			if (victim == null || victim.booking.getPriority().compareTo(booking.getPriority()) > 0) {
+				if (queueSlots.tryAcquire()) {
+					// a queued booking started while we were looking
+					return true;
+				}
+				return false;
+			}
+			if (leaveQueue(victim, false)) {
+				pendingBookings.remove(victim);
+				dispatch.logEvent(victim.booking, "was shed from region " + regionName + " to make room");
+				countRejection(victim.booking, RejectionReason.SHED);
+				victim.completeExceptionally(new BookingRejectedException(RejectionReason.SHED,
+						"Booking " + victim.booking + " was shed from region " + regionName + " to make room"));
+				return true;
+			}
+			// the victim started before we could remove it, which may have freed a place
+			if (queueSlots.tryAcquire()) {
+				return true;
+			}
+		}
+	}
+	
+	private static boolean isBetterToShed(Booking candidate, Booking current)
+	{
+		int byPriority = candidate.getPriority().compareTo(current.getPriority());
+		return byPriority != 0 ? byPriority < 0 : candidate.getJobID() < current.getJobID();
+	}
+	
+	/**
+	 * Blocks the caller until there is room in the admission queue, or the admission timeout passes
+	 * 
+	 * @return true if a place in the queue was taken
+	 */
+	private boolean waitForQueueSlot()
+	{
+		try {
+			return queueSlots.tryAcquire(admissionTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	/**
+	 * Offers a booking to each neighbouring region in turn
+	 * 
+	 * @return the future from the neighbour that took the booking, or null if none had room
+	 */
+	private CompletableFuture<BookingResult> redirect(Booking booking)
+	{
+		for (String neighbourName : dispatch.getConfig().neighboursOf(regionName)) {
+			NuberRegion neighbour = dispatch.getRegion(neighbourName);
+			if (neighbour == null || neighbour == this) {
+				continue;
+			}
+			BookingFuture future = neighbour.acceptRedirected(booking);
+			if (future != null) {
+				redirectedBookings.increment();
+				dispatch.logEvent(booking, "redirected from region " + regionName + " to " + neighbourName);
+				return future;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Takes a booking redirected from a full neighbour, but only if there is room right now
+	 * 
+	 * @return the future for the booking, or null if this region cannot take it
+	 */
+	private BookingFuture acceptRedirected(Booking booking)
+	{
+		if (shutdown || (queueSlots != null && !queueSlots.tryAcquire())) {
+			return null;
+		}
+		return enqueue(booking);
+	}
+	
+	/**
+	 * Starts as many pending bookings as the limiter has free permits.
+	 * 
+	 * Called whenever a booking is added and whenever an active booking finishes, so a 
+	 * pending booking can never be left behind while a permit is free.
+	 */
+	private void startPendingBookings()
+	{
+		while (!pendingBookings.isEmpty() && limiter.tryAcquire()) {
+			BookingFuture future = pendingBookings.poll();
+			if (future == null || !leaveQueue(future, true)) {
+				// another thread took the last booking between our check and poll,
+				// or the booking was cancelled and has already left the queue
+				limiter.release();
+				continue;
+			}
+			long startTime = clock.nanoTime();
+			future.booking.markStarted(startTime);
+			if (dispatch.getConfig().asyncDriverHandoff) {
+				requestDriver(future, startTime);
+				continue;
+			}
+			try {
+				executor.execute(() -> runBooking(future, null, false, startTime));
+			} catch (RejectedExecutionException e) {
+				future.cancel(false);
+				cancelledBookings.increment();
+				limiter.release();
+			}
+		}
+		shutdownExecutorIfIdle();
+	}
+	
+	/**
+	 * Asks dispatch for a driver for a booking that holds a permit, without holding a thread
+	 * while it waits. Once the booking has been handed its driver, or has given up waiting, 
+	 * it is run on one of the executor's threads.
+	 * 
+	 * @param future The future of the booking to run
+	 * @param startTime When the booking took its permit
+	 */
+	private void requestDriver(BookingFuture future, long startTime)
+	{
+		Booking booking = future.booking;
+		activeBookings.add(future);
+		CompletableFuture<Driver> request = dispatch.requestDriver(regionName, booking.getPassenger(),
+				booking.getPriority(), booking.getMaxDriverWaitMillis());
+		booking.setDriverRequest(request);
+		request.whenComplete((driver, error) -> {
+			if (driver != null) {
+				dispatch.driverSelected(driver);
+			}
+			try {
+				executor.execute(() -> runBooking(future, driver, true, startTime));
+			} catch (RejectedExecutionException e) {
+				if (driver != null) {
+					dispatch.addDriver(driver, regionName);
+				}
+				activeBookings.remove(future);
+				future.cancel(false);
+				cancelledBookings.increment();
+				limiter.release();
+				startPendingBookings();
+			}
+		});
+	}
+	
+	/**
+	 * Runs a booking that holds a permit, on one of the executor's threads.
+	 * 
+	 * In TripMode.TIMER the thread is given back once the booking has a driver, and the
+	 * permit is only released when the trip's timer events have finished.
+	 * 
+	 * @param future The future of the booking to run
+	 * @param driver The driver dispatch has handed to the booking, if handedDriver
+	 * @param handedDriver Whether the region already waited for the booking's driver, rather 
+	 * 			than the booking asking for one itself
+	 * @param startTime When the booking took its permit
+	 */
+	private void runBooking(BookingFuture future, Driver driver, boolean handedDriver, long startTime)
+	{
+		if (!future.beginRunning()) {
+			// cancelled after it left the queue, but before it could start
+			if (driver != null) {
+				dispatch.addDriver(driver, regionName);
 			}
-		};
-		return executor.submit(callableTaskCallable);
+			activeBookings.remove(future);
+			cancelledBookings.increment();
+			limiter.release();
+			startPendingBookings();
+			return;
+		}
+		Booking booking = future.booking;
+		activeBookings.add(future);
+		CompletableFuture<BookingResult> trip;
+		try {
+			BlockingStart start = new BlockingStart(booking, dispatch.getTripTimer(), driver, handedDriver,
+					clock.nanoTime() - startTime);
+			ForkJoinPool.managedBlock(start);
+			trip = start.trip;
+		} catch (Throwable t) {
+			trip = CompletableFuture.failedFuture(t);
+		} finally {
+			future.endRunning();
+		}
+		if (trip.isDone()) {
+			trip.whenComplete((result, error) -> finishBooking(future, startTime, result, error));
+			return;
+		}
+		// the trip finishes on the timer thread, which must not run the stages callers have
+		// chained onto the booking's future, so the booking is finished on the region's executor
+		trip.whenComplete((result, error) -> {
+			BlockingFinish finish = new BlockingFinish(() -> finishBooking(future, startTime, result, error));
+			try {
+				executor.execute(finish::run);
+			} catch (RejectedExecutionException e) {
+				finish.run();
+			}
+		});
+	}
+	
+	/**
+	 * Finishing a booking runs the stages callers have chained onto its future, which may
+	 * block. Like BlockingStart, it is run through ForkJoinPool.managedBlock, so a region on 
+	 * the dispatch's shared pool does not leave the pool's workers stuck behind slow stages.
+	 */
+	private static class BlockingFinish implements ForkJoinPool.ManagedBlocker {
+		
+		private final Runnable finish;
+		private boolean finished = false;
+		
+		BlockingFinish(Runnable finish)
+		{
+			this.finish = finish;
+		}
+		
+		void run()
+		{
+			try {
+				ForkJoinPool.managedBlock(this);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		@Override
+		public boolean block()
+		{
+			if (!finished) {
+				finished = true;
+				finish.run();
+			}
+			return true;
+		}
+		
+		@Override
+		public boolean isReleasable()
+		{
+			return finished;
+		}
+	}
+	
+	/**
+	 * Completes the future of a booking whose trip has finished, and gives its permit back.
+	 * Any stages chained onto the future run here, on the calling thread.
+	 * 
+	 * @param future The future of the booking
+	 * @param startTime When the booking took its permit
+	 * @param result The booking's result, or null if the trip failed
+	 * @param error Why the trip failed, or null
+	 */
+	private void finishBooking(BookingFuture future, long startTime, BookingResult result, Throwable error)
+	{
+		Booking booking = future.booking;
+		if (future.isCancelled() || (result != null && result.status == BookingStatus.CANCELLED)) {
+			cancelledBookings.increment();
+			future.cancel(false);
+		} else if (error != null) {
+			future.completeExceptionally(error);
+		} else {
+			if (result.status == BookingStatus.EXPIRED) {
+				expiredBookings.increment();
+			} else {
+				completedBookings.increment();
+				latencies.record(result.totalNanos);
+			}
+			dispatch.logEvent(booking, "finished in region " + regionName);
+			future.complete(result);
+		}
+		activeBookings.remove(future);
+		limiter.release(booking.getDriverWaitNanos(), clock.nanoTime() - startTime);
+		startPendingBookings();
+	}
+	
+	/**
+	 * The part of a booking that holds its thread: the whole trip in TripMode.BLOCKING, or
+	 * only the wait for a driver in TripMode.TIMER, which is skipped when the region has 
+	 * already waited for the driver without a thread.
+	 * 
+	 * It is run through ForkJoinPool.managedBlock, so when the region runs on the dispatch's
+	 * shared pool, the pool knows the worker is blocked and can bring in another one to keep
+	 * other regions' bookings moving. On any other thread it simply runs.
+	 */
+	private static class BlockingStart implements ForkJoinPool.ManagedBlocker {
+		
+		private final Booking booking;
+		private final HashedWheelTimer tripTimer;
+		private final Driver driver;
+		private final boolean handedDriver;
+		private final long driverWaitNanos;
+		private CompletableFuture<BookingResult> trip;
+		
+		BlockingStart(Booking booking, HashedWheelTimer tripTimer, Driver driver, boolean handedDriver, long driverWaitNanos)
+		{
+			this.booking = booking;
+			this.tripTimer = tripTimer;
+			this.driver = driver;
+			this.handedDriver = handedDriver;
+			this.driverWaitNanos = driverWaitNanos;
+		}
+		
+		@Override
+		public boolean block()
+		{
+			if (trip != null) {
+				return true;
+			}
+			if (handedDriver) {
+				trip = tripTimer != null ? booking.callAsync(tripTimer, driver, driverWaitNanos)
+						: CompletableFuture.completedFuture(booking.call(driver, driverWaitNanos));
+			} else {
+				trip = tripTimer != null ? booking.callAsync(tripTimer) : CompletableFuture.completedFuture(booking.call());
+			}
+			return true;
+		}
+		
+		@Override
+		public boolean isReleasable()
+		{
+			return trip != null;
+		}
+	}
+	
+	/**
+	 * Once the region is shutdown and every accepted booking has finished, 
+	 * the executor can be released. A shared pool is left for dispatch to shutdown.
+	 */
+	private void shutdownExecutorIfIdle()
+	{
+		if (shutdown && queuedBookings.get() == 0 && limiter.getInFlight() == 0
+				&& terminated.compareAndSet(false, true)) {
+			if (ownsExecutor) {
+				executor.shutdown();
+			}
+			terminationLatch.countDown();
+			dispatch.regionTerminated(this);
+		}
+	}
+	
+	/**
+	 * Gets the number of bookings that currently hold one of the region's permits
+	 * 
+	 * @return Number of active bookings in this region
+	 */
+	public int getActiveBookings()
+	{
+		return limiter.getInFlight();
+	}
+	
+	/**
+	 * Gets how many bookings the region currently allows to be active at once. 
+	 * This only changes over time when the region uses an adaptive limiter.
+	 * 
+	 * @return The region's current concurrency limit
+	 */
+	public int getConcurrencyLimit()
+	{
+		return limiter.getLimit();
+	}
+	
+	/**
+	 * Changes the most bookings the region may have active at once, while it is running. With
+	 * a fixed pool of threads the pool is resized to match, and with an adaptive limiter this
+	 * is the new most the limit can reach. If the limit grows, queued bookings start straight away.
+	 * 
+	 * @param maxSimultaneousJobs The new maximum, at least 1
+	 * @throws IllegalArgumentException if maxSimultaneousJobs is less than 1
+	 */
+	public synchronized void setMaxSimultaneousJobs(int maxSimultaneousJobs)
+	{
+		if (maxSimultaneousJobs < 1) {
+			throw new IllegalArgumentException("Region " + regionName + " needs at least 1 simultaneous job, not " + maxSimultaneousJobs);
+		}
+		// the limiter goes first, so if it refuses the new maximum nothing has changed yet
+		limiter.setMaxLimit(maxSimultaneousJobs);
+		if (ownsExecutor && executor instanceof ThreadPoolExecutor && executionMode == RegionExecutionMode.FIXED_POOL) {
+			ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+			// the core size may never be above the maximum, so the order depends on the direction
+			if (maxSimultaneousJobs > pool.getMaximumPoolSize()) {
+				pool.setMaximumPoolSize(maxSimultaneousJobs);
+				pool.setCorePoolSize(maxSimultaneousJobs);
+			} else {
+				pool.setCorePoolSize(maxSimultaneousJobs);
+				pool.setMaximumPoolSize(maxSimultaneousJobs);
+			}
+		}
+		this.maxSimultaneousJobs = maxSimultaneousJobs;
+		startPendingBookings();
+	}
+	
+	/**
+	 * @return The most bookings the region may have active at once
+	 */
+	public int getMaxSimultaneousJobs()
+	{
+		return maxSimultaneousJobs;
+	}
+	
+	/**
+	 * Gets the number of threads running the region's bookings. For a region on the dispatch's
+	 * shared pool this is the size of the whole shared pool, and for a region that starts a new
+	 * thread for each booking it is the number of active bookings.
+	 * 
+	 * @return The number of threads in the region's executor
+	 */
+	public int getExecutorPoolSize()
+	{
+		if (executor instanceof ThreadPoolExecutor) {
+			return ((ThreadPoolExecutor) executor).getPoolSize();
+		}
+		if (executor instanceof ForkJoinPool) {
+			return ((ForkJoinPool) executor).getPoolSize();
+		}
+		return getActiveBookings();
+	}
+	
+	/**
+	 * Gets a percentile of the time completed bookings took, from being created to their 
+	 * passenger arriving, to within an eighth
+	 * 
+	 * @param percentile The percentile, between 0 and 100
+	 * @return The percentile in milliseconds, or 0 if no booking has completed
+	 */
+	public double getLatencyPercentileMillis(double percentile)
+	{
+		return latencies.percentile(percentile) / 1e6;
+	}
+	
+	/**
+	 * @return The latencies of the region's completed bookings
+	 */
+	LatencyHistogram getLatencies()
+	{
+		return latencies;
+	}
+	
+	/**
+	 * Gets the number of accepted bookings still waiting for a free position in this region
+	 * 
+	 * @return Number of queued bookings in this region
+	 */
+	public int getQueuedBookings()
+	{
+		return queuedBookings.get();
+	}
+	
+	/**
+	 * @return Bookings accepted into the region, including those redirected from a neighbour
+	 */
+	public long getAcceptedBookings()
+	{
+		return acceptedBookings.sum();
+	}
+	
+	/**
+	 * @return Bookings cancelled before they finished, whether queued or active
+	 */
+	public long getCancelledBookings()
+	{
+		return cancelledBookings.sum();
+	}
+	
+	/**
+	 * @return Bookings that got their passenger to the destination
+	 */
+	public long getCompletedBookings()
+	{
+		return completedBookings.sum();
+	}
+	
+	/**
+	 * @return Bookings that gave up because no driver became available within their maximum wait
+	 */
+	public long getExpiredBookings()
+	{
+		return expiredBookings.sum();
+	}
+	
+	/**
+	 * @return Bookings turned away or dropped before they started, for any reason. 
+	 * 			getRejectedBookings(RejectionReason) breaks them down by reason.
+	 */
+	public long getRejectedBookings()
+	{
+		return rejectedBookings.sum();
+	}
+	
+	/**
+	 * @param reason Why the bookings were rejected
+	 * @return Bookings turned away or dropped before they started for the given reason
+	 */
+	public long getRejectedBookings(RejectionReason reason)
+	{
+		return rejectionsByReason.get(reason).sum();
+	}
+	
+	/**
+	 * @return Bookings dropped under OverflowPolicy.SHED_OLDEST, either from the queue or on arrival
+	 */
+	public long getShedBookings()
+	{
+		return getRejectedBookings(RejectionReason.SHED);
+	}
+	
+	/**
+	 * @return Callers that had to block for room in the queue under OverflowPolicy.BLOCK
+	 */
+	public long getBlockedBookings()
+	{
+		return blockedBookings.sum();
+	}
+	
+	/**
+	 * @return Blocked callers whose booking was rejected because no room came up in time
+	 */
+	public long getBlockTimeouts()
+	{
+		return getRejectedBookings(RejectionReason.QUEUE_TIMEOUT);
+	}
+	
+	/**
+	 * @return Bookings passed on to a neighbouring region under OverflowPolicy.REDIRECT
+	 */
+	public long getRedirectedBookings()
+	{
+		return redirectedBookings.sum();
+	}
+	
+	/**
+	 * @return The region's name
+	 */
+	public String getRegionName()
+	{
+		return regionName;
+	}
+	
+	/**
+	 * @return The execution mode the region actually runs its bookings with. This is FIXED_POOL
+	 * 			if the region was created with VIRTUAL_THREADS on a JVM without virtual threads.
+	 */
+	public RegionExecutionMode getExecutionMode()
+	{
+		return executionMode;
 	}
 	
 	/**
@@ -77,8 +964,57 @@ public class NuberRegion {
 	public void shutdown()
 	{
 		shutdown = true;
-		executor.shutdown();
+		shutdownExecutorIfIdle();
 		//System.out.println("Region " + regionName + " is shutdown");
 	}
+	
+	/**
+	 * Forces the region to stop. No new bookings are accepted, every booking that has not yet
+	 * started is removed from the queue and handed back, and active bookings are cancelled.
+	 * 
+	 * The futures of the returned bookings fail with RejectionReason.DRAINED, so nothing is left
+	 * waiting on them, and the bookings can be rebooked elsewhere.
+	 * 
+	 * @return The bookings that were queued but never started
+	 */
+	public List<Booking> shutdownNow()
+	{
+		shutdown = true;
+		List<Booking> unstarted = new ArrayList<Booking>();
+		BookingFuture future;
+		while ((future = pendingBookings.poll()) != null) {
+			if (leaveQueue(future, true) && future.completeExceptionally(new BookingRejectedException(RejectionReason.DRAINED,
+					"Booking " + future.booking + " was drained from region " + regionName + " before it started"))) {
+				countRejection(future.booking, RejectionReason.DRAINED);
+				unstarted.add(future.booking);
+			}
+		}
+		for (BookingFuture active : activeBookings) {
+			active.cancel(true);
+		}
+		shutdownExecutorIfIdle();
+		return unstarted;
+	}
+	
+	/**
+	 * Waits for the region to finish every booking it accepted, after it has been shutdown
+	 * 
+	 * @param timeout The longest time to wait
+	 * @param unit The unit of the timeout
+	 * @return true if the region finished, false if the timeout passed first
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		return terminationLatch.await(timeout, unit);
+	}
+	
+	/**
+	 * @return true once the region has been shutdown and has finished every booking it accepted
+	 */
+	public boolean isTerminated()
+	{
+		return terminated.get();
+	}
 		
 }
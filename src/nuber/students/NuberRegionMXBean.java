@@ -0,0 +1,99 @@
+package nuber.students;
+
+/**
+ * The management interface of a NuberRegion, registered with the platform MBean server
+ * when DispatchConfig.jmxEnabled is set.
+ * 
+ * Every attribute is read from counters and atomics, so reading it never waits on a lock 
+ * that bookings take.
+ */
+public interface NuberRegionMXBean {
+
+	/**
+	 * @return The region's name
+	 */
+	String getRegionName();
+
+	/**
+	 * @return The number of bookings holding one of the region's permits
+	 */
+	int getActiveBookings();
+
+	/**
+	 * @return The number of accepted bookings waiting for a free position in the region
+	 */
+	int getQueuedBookings();
+
+	/**
+	 * @return How many bookings the region currently allows to be active at once
+	 */
+	int getConcurrencyLimit();
+
+	/**
+	 * @return The most bookings the region may have active at once
+	 */
+	int getMaxSimultaneousJobs();
+
+	/**
+	 * Changes the most bookings the region may have active at once
+	 * 
+	 * @param maxSimultaneousJobs The new maximum, at least 1
+	 */
+	void setMaxSimultaneousJobs(int maxSimultaneousJobs);
+
+	/**
+	 * @return The number of threads running the region's bookings
+	 */
+	int getExecutorPoolSize();
+
+	/**
+	 * @return The execution mode the region actually runs its bookings with
+	 */
+	String getExecutionMode();
+
+	/**
+	 * @return The number of bookings in the region waiting for a driver
+	 */
+	int getBookingsAwaitingDriver();
+
+	/**
+	 * @return Idle drivers kept in the region's own pool, always 0 unless regions keep their own pools
+	 */
+	int getIdleDrivers();
+
+	/**
+	 * @return Bookings that got their passenger to the destination
+	 */
+	long getCompletedBookings();
+
+	/**
+	 * @return Bookings cancelled before they finished
+	 */
+	long getCancelledBookings();
+
+	/**
+	 * @return Bookings turned away or dropped before they started, for any reason
+	 */
+	long getRejectedBookings();
+
+	/**
+	 * @return Bookings that gave up waiting for a driver
+	 */
+	long getExpiredBookings();
+
+	/**
+	 * @return The median time completed bookings took from being created to finishing
+	 */
+	double getLatencyP50Millis();
+
+	/**
+	 * @return The 95th percentile of the time completed bookings took
+	 */
+	double getLatencyP95Millis();
+
+	/**
+	 * @return The 99th percentile of the time completed bookings took
+	 */
+	double getLatencyP99Millis();
+
+}
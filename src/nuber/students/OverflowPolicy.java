@@ -0,0 +1,31 @@
+package nuber.students;
+
+/**
+ * What a region does with a new booking when its admission queue is already full.
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * The new booking is rejected with RejectionReason.QUEUE_FULL
+	 */
+	REJECT,
+
+	/**
+	 * The oldest of the lowest priority queued bookings is dropped with RejectionReason.SHED
+	 * to make room. If the new booking has a lower priority than everything queued, it is
+	 * the one that gets shed.
+	 */
+	SHED_OLDEST,
+
+	/**
+	 * The caller blocks until a queued booking starts, for at most DispatchConfig.admissionTimeoutMillis,
+	 * after which the booking is rejected with RejectionReason.QUEUE_TIMEOUT
+	 */
+	BLOCK,
+
+	/**
+	 * The booking is offered to each of the region's neighbours from DispatchConfig.neighbours
+	 * in turn, and rejected with RejectionReason.QUEUE_FULL if none of them have room
+	 */
+	REDIRECT
+}
@@ -3,13 +3,40 @@ package nuber.students;
 public class Passenger extends Person
 {
 	
+	private double destinationX;
+	private double destinationY;
+	
+	/**
+	 * Creates a passenger at a random location, going to a random destination
+	 */
 	public Passenger(String name, int maxSleep) {
-		super(name, maxSleep);
+		this(name, maxSleep, Math.random(), Math.random(), Math.random(), Math.random());
 	}
-
-	public int getTravelTime()
+	
+	/**
+	 * Creates a passenger waiting to be picked up at one location, going to another
+	 * 
+	 * @param name
+	 * @param maxSleep
+	 * @param x The pickup point, between 0 and 1
+	 * @param y The pickup point, between 0 and 1
+	 * @param destinationX Where the passenger is going, between 0 and 1
+	 * @param destinationY Where the passenger is going, between 0 and 1
+	 */
+	public Passenger(String name, int maxSleep, double x, double y, double destinationX, double destinationY) {
+		super(name, maxSleep, x, y);
+		this.destinationX = destinationX;
+		this.destinationY = destinationY;
+	}
+	
+	public double getDestinationX()
+	{
+		return destinationX;
+	}
+	
+	public double getDestinationY()
 	{
-		return (int)(Math.random() * maxSleep);
+		return destinationY;
 	}
 
 }
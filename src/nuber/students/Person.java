@@ -6,12 +6,75 @@ public abstract class Person
 	public final static String[] SAMPLE_NAMES = {"Bryan","Olivia","Vincent","Kenneth","Debra","Jack","Harold","Isabella","Jerry","Stephen","Larry","Ruth","Diane","Gerald","Brandon","Virginia","Helen","Gary","Noah","Michell","Alexis","Zachary","Gregory","Arthur","Dennis","Terry","Rose","Jeffrey","Jean","Jane","Brenda","Louis","Mary","Julia","Sandra","Catherine","Adam","Samantha","Amber","Ralp","Jacob","Raymond","Rachel","Kelly","Danielle","John","Melissa","Albert","Brian","Eugne","Jeremy","Nathan","Beverly","Margaret","Natalie","Charlotte","Ann","Betty","Randy","Tyler","Emma","Willie","Charles","Lisa","Anthony","Sara","Sean","James","Johnny","Jud","Evelyn","Theresa","Gloria","Emily","Denise","Frank","Steven","Jacqueline","Diana","Ronald","Kayla","Joe","Nicole","Scott","Henry","Lawrence","Ethan","Stephanie","Kevin","Kathleen","Angela","Joyce","Sarah","Benjamin","Carl","Cynthia","Nicholas","Andrea","Robert","Martha","Susan","Ryan","Alexander","Donna","Thomas","Brittany","Timothy","Hannah","Heather","Linda","Joan","Pamela","Maria","Kyle","Logan","Paul","Andrew","Dylan","Christina","Kimberly","Patricia","Victoria","Philip","Shirley","Billy","Jonathan","Roy","Christopher","Roger","Anna","Richard","Doris","Bruce","Peter","Dorothy","Amanda","Marilyn","Christine","Marie","Karen","Jordan","Wayne","Edward","Justin","Walter","Rebecca","Sharon","Jesse","Joshua","Sophia","Grace","Deborah","Ashley","Joseph","Matthew","Alan","Julie","Abigail","Mark","Megan","Juan","Michael","Frances","George","Eric","William","Cheryl","Daniel","Katherine","Amy","Laura","Donald","Jennifer","Judith","Carolyn","Christian","Janice","Barbara","Elijah","Nancy","Aaron","Teresa","Bobby","Douglas","Russell","Jose","Keith","Kathryn","Samuel","Austin","Jason","Jessica","David","Lauren","Patrick","Gabriel","Alice","Elizabeth","Madison","Carol"};
 	private static int nextNameIndex = 0;
 	
+	/**
+	 * People are located in a square city, with both coordinates between 0 and 1, so no two
+	 * people can be further apart than the city's diagonal
+	 */
+	public final static double MAX_DISTANCE = Math.sqrt(2);
+	
 	public String name;
 	protected int maxSleep;
+	private double x;
+	private double y;
 	
+	/**
+	 * Creates a person at a random location in the city
+	 */
 	public Person(String name,int maxSleep) {
+		this(name, maxSleep, Math.random(), Math.random());
+	}
+	
+	/**
+	 * Creates a person at the given location
+	 * 
+	 * @param name
+	 * @param maxSleep
+	 * @param x Between 0 and 1
+	 * @param y Between 0 and 1
+	 */
+	public Person(String name, int maxSleep, double x, double y) {
 		this.name = name;
 		this.maxSleep = maxSleep;
+		this.x = x;
+		this.y = y;
+	}
+	
+	public double getX()
+	{
+		return x;
+	}
+	
+	public double getY()
+	{
+		return y;
+	}
+	
+	/**
+	 * Moves the person to a new location
+	 * 
+	 * @param x Between 0 and 1
+	 * @param y Between 0 and 1
+	 */
+	public void moveTo(double x, double y)
+	{
+		this.x = x;
+		this.y = y;
+	}
+	
+	/**
+	 * @return The straight line distance from this person to the given point
+	 */
+	public double distanceTo(double x, double y)
+	{
+		return Math.hypot(this.x - x, this.y - y);
+	}
+	
+	/**
+	 * @return The straight line distance between this person and another
+	 */
+	public double distanceTo(Person other)
+	{
+		return distanceTo(other.x, other.y);
 	}
 	
 	public static String getRandomName()
@@ -0,0 +1,29 @@
+package nuber.students;
+
+/**
+ * Controls which threads a NuberRegion uses to run its bookings.
+ *
+ * In every mode the region's maxSimultaneousJobs is enforced with permits, so the mode
+ * only decides what kind of thread an active booking occupies.
+ */
+public enum RegionExecutionMode {
+
+	/**
+	 * One platform thread per simultaneous job, held in a fixed size pool (the original behaviour)
+	 */
+	FIXED_POOL,
+
+	/**
+	 * Each active booking runs on its own virtual thread, so sleeping or waiting for a driver
+	 * does not pin an OS thread. Needs Java 21 or later. On an older JVM the region prints a 
+	 * warning and runs as FIXED_POOL instead, which NuberRegion.getExecutionMode() reports.
+	 */
+	VIRTUAL_THREADS,
+
+	/**
+	 * Bookings from every region run on one work-stealing ForkJoinPool owned by the dispatch,
+	 * sized by the number of cores rather than the number of regions. Works best together
+	 * with TripMode.TIMER, as a blocking trip occupies a pool worker while it sleeps.
+	 */
+	SHARED_POOL
+}
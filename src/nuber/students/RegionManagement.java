@@ -0,0 +1,119 @@
+package nuber.students;
+
+/**
+ * Exposes a NuberRegion through JMX, as a NuberRegionMXBean
+ */
+class RegionManagement implements NuberRegionMXBean {
+
+	private final NuberDispatch dispatch;
+	private final NuberRegion region;
+
+	RegionManagement(NuberDispatch dispatch, NuberRegion region)
+	{
+		this.dispatch = dispatch;
+		this.region = region;
+	}
+
+	@Override
+	public String getRegionName()
+	{
+		return region.getRegionName();
+	}
+
+	@Override
+	public int getActiveBookings()
+	{
+		return region.getActiveBookings();
+	}
+
+	@Override
+	public int getQueuedBookings()
+	{
+		return region.getQueuedBookings();
+	}
+
+	@Override
+	public int getConcurrencyLimit()
+	{
+		return region.getConcurrencyLimit();
+	}
+
+	@Override
+	public int getMaxSimultaneousJobs()
+	{
+		return region.getMaxSimultaneousJobs();
+	}
+
+	@Override
+	public void setMaxSimultaneousJobs(int maxSimultaneousJobs)
+	{
+		region.setMaxSimultaneousJobs(maxSimultaneousJobs);
+	}
+
+	@Override
+	public int getExecutorPoolSize()
+	{
+		return region.getExecutorPoolSize();
+	}
+
+	@Override
+	public String getExecutionMode()
+	{
+		return region.getExecutionMode().name();
+	}
+
+	@Override
+	public int getBookingsAwaitingDriver()
+	{
+		return dispatch.getBookingsAwaitingDriver(region.getRegionName());
+	}
+
+	@Override
+	public int getIdleDrivers()
+	{
+		return dispatch.getIdleDrivers(region.getRegionName());
+	}
+
+	@Override
+	public long getCompletedBookings()
+	{
+		return region.getCompletedBookings();
+	}
+
+	@Override
+	public long getCancelledBookings()
+	{
+		return region.getCancelledBookings();
+	}
+
+	@Override
+	public long getRejectedBookings()
+	{
+		return region.getRejectedBookings();
+	}
+
+	@Override
+	public long getExpiredBookings()
+	{
+		return region.getExpiredBookings();
+	}
+
+	@Override
+	public double getLatencyP50Millis()
+	{
+		return region.getLatencyPercentileMillis(50);
+	}
+
+	@Override
+	public double getLatencyP95Millis()
+	{
+		return region.getLatencyPercentileMillis(95);
+	}
+
+	@Override
+	public double getLatencyP99Millis()
+	{
+		return region.getLatencyPercentileMillis(99);
+	}
+
+}
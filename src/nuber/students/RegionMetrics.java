@@ -0,0 +1,92 @@
+package nuber.students;
+
+/**
+ * A snapshot of one region's counters and gauges, taken by a MetricsRegistry
+ */
+public class RegionMetrics {
+
+	/**
+	 * The name of the region
+	 */
+	public final String region;
+	/**
+	 * Accepted bookings still waiting for a free position in the region
+	 */
+	public final int queuedBookings;
+	/**
+	 * Bookings holding one of the region's permits
+	 */
+	public final int activeBookings;
+	/**
+	 * How many bookings the region allows to be active at once
+	 */
+	public final int concurrencyLimit;
+	/**
+	 * Bookings in the region waiting for dispatch to give them a driver
+	 */
+	public final int bookingsAwaitingDriver;
+	/**
+	 * Idle drivers kept in the region's own pool, always 0 unless regions keep their own pools
+	 */
+	public final int idleDrivers;
+	/**
+	 * Bookings the region has accepted since it was created
+	 */
+	public final long acceptedBookings;
+	/**
+	 * Bookings that got their passenger to the destination
+	 */
+	public final long completedBookings;
+	/**
+	 * Bookings cancelled before they finished
+	 */
+	public final long cancelledBookings;
+	/**
+	 * Bookings turned away or dropped before they started, for any reason
+	 */
+	public final long rejectedBookings;
+	/**
+	 * Bookings that gave up waiting for a driver
+	 */
+	public final long expiredBookings;
+	/**
+	 * Bookings accepted per second since the previous snapshot
+	 */
+	public final double acceptedPerSecond;
+	/**
+	 * Bookings completed per second since the previous snapshot
+	 */
+	public final double completedPerSecond;
+
+	public RegionMetrics(String region, int queuedBookings, int activeBookings, int concurrencyLimit,
+			int bookingsAwaitingDriver, int idleDrivers, long acceptedBookings, long completedBookings,
+			long cancelledBookings, long rejectedBookings, long expiredBookings, double acceptedPerSecond,
+			double completedPerSecond)
+	{
+		this.region = region;
+		this.queuedBookings = queuedBookings;
+		this.activeBookings = activeBookings;
+		this.concurrencyLimit = concurrencyLimit;
+		this.bookingsAwaitingDriver = bookingsAwaitingDriver;
+		this.idleDrivers = idleDrivers;
+		this.acceptedBookings = acceptedBookings;
+		this.completedBookings = completedBookings;
+		this.cancelledBookings = cancelledBookings;
+		this.rejectedBookings = rejectedBookings;
+		this.expiredBookings = expiredBookings;
+		this.acceptedPerSecond = acceptedPerSecond;
+		this.completedPerSecond = completedPerSecond;
+	}
+
+	@Override
+	public String toString()
+	{
+		return region + ": queued: " + queuedBookings + ", active: " + activeBookings + "/" + concurrencyLimit
+				+ ", awaiting driver: " + bookingsAwaitingDriver + ", idle drivers: " + idleDrivers
+				+ ", completed: " + completedBookings + ", cancelled: " + cancelledBookings
+				+ ", rejected: " + rejectedBookings + ", expired: " + expiredBookings
+				+ ", accepted/s: " + String.format("%.1f", acceptedPerSecond)
+				+ ", completed/s: " + String.format("%.1f", completedPerSecond);
+	}
+
+}
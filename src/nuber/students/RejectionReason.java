@@ -0,0 +1,37 @@
+package nuber.students;
+
+/**
+ * Why a booking was not accepted, or was dropped before it could start
+ */
+public enum RejectionReason {
+
+	/**
+	 * The dispatch or region had already been told to shutdown
+	 */
+	SHUTDOWN,
+
+	/**
+	 * The booking named a region the dispatch does not have
+	 */
+	UNKNOWN_REGION,
+
+	/**
+	 * The region's admission queue was full
+	 */
+	QUEUE_FULL,
+
+	/**
+	 * The region's admission queue stayed full for as long as the caller was allowed to block
+	 */
+	QUEUE_TIMEOUT,
+
+	/**
+	 * The booking was queued, but was dropped to make room for a newer or more urgent booking
+	 */
+	SHED,
+
+	/**
+	 * The booking was still queued when its region was forced to stop, and was handed back to the caller
+	 */
+	DRAINED
+}
@@ -0,0 +1,107 @@
+package nuber.students;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free, bounded, multi-producer multi-consumer pool of idle drivers.
+ * 
+ * Drivers are kept in a ring buffer where every slot has a sequence number saying whose turn
+ * it is to use the slot. Producers claim a slot by moving the tail on with a compare-and-set,
+ * consumers do the same with the head, and the slot's sequence is then bumped to hand it to
+ * the other side. No thread ever holds a lock, so handing drivers between many booking
+ * threads does not all queue up behind one lock.
+ * 
+ * A thread that is part way through using a slot can hold up the thread that next wants the
+ * same slot, which then yields until the slot is given back rather than wrongly reporting 
+ * the pool as full or empty.
+ * 
+ * Drivers come out in FIFO order, like the original queue.
+ */
+public class RingBufferDriverPool implements DriverPool {
+
+	private final int mask;
+	private final AtomicReferenceArray<Driver> slots;
+	private final AtomicLongArray sequences;
+	private final AtomicLong head = new AtomicLong(0);
+	private final AtomicLong tail = new AtomicLong(0);
+
+	/**
+	 * @param capacity The most idle drivers the pool can hold, rounded up to a power of two
+	 */
+	public RingBufferDriverPool(int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		mask = size - 1;
+		slots = new AtomicReferenceArray<Driver>(size);
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	@Override
+	public boolean offer(Driver driver)
+	{
+		long position = tail.get();
+		while (true) {
+			int index = (int) (position & mask);
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					slots.set(index, driver);
+					sequences.set(index, position + 1);
+					return true;
+				}
+				position = tail.get();
+			} else if (difference < 0) {
+				// the slot still holds a driver from the previous lap, so the ring is full, unless
+				// a consumer has claimed that driver and not yet given the slot back
+				if (position - head.get() >= slots.length()) {
+					return false;
+				}
+				Thread.yield();
+				position = tail.get();
+			} else {
+				position = tail.get();
+			}
+		}
+	}
+
+	@Override
+	public Driver poll()
+	{
+		long position = head.get();
+		while (true) {
+			int index = (int) (position & mask);
+			long difference = sequences.get(index) - (position + 1);
+			if (difference == 0) {
+				if (head.compareAndSet(position, position + 1)) {
+					Driver driver = slots.getAndSet(index, null);
+					sequences.set(index, position + mask + 1);
+					return driver;
+				}
+				position = head.get();
+			} else if (difference < 0) {
+				// nothing has been written to this slot yet, so the ring is empty, unless a 
+				// producer has claimed the slot and not yet written its driver
+				if (tail.get() <= position) {
+					return null;
+				}
+				Thread.yield();
+				position = head.get();
+			} else {
+				position = head.get();
+			}
+		}
+	}
+
+	@Override
+	public int size()
+	{
+		long size = tail.get() - head.get();
+		return (int) Math.max(0, Math.min(size, mask + 1));
+	}
+
+}
@@ -0,0 +1,57 @@
+package nuber.students;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A clock that runs faster than real time by a fixed factor, so with a factor of 100 a 
+ * simulation that would take ten minutes takes six seconds. Every reading and every pause is
+ * in simulated time.
+ */
+public class ScaledClock implements NuberClock {
+
+	private final double factor;
+	private final long startNanos = System.nanoTime();
+
+	/**
+	 * @param factor How many times faster than real time the clock runs, above 0
+	 * @throws IllegalArgumentException if the factor is not above 0
+	 */
+	public ScaledClock(double factor)
+	{
+		if (!(factor > 0)) {
+			throw new IllegalArgumentException("A scaled clock needs a factor above 0, not " + factor);
+		}
+		this.factor = factor;
+	}
+
+	@Override
+	public long nanoTime()
+	{
+		return startNanos + (long) ((System.nanoTime() - startNanos) * factor);
+	}
+
+	@Override
+	public void sleepNanos(long nanos) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + (long) (nanos / factor);
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > 0) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			LockSupport.parkNanos(this, remaining);
+		}
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+	}
+
+	/**
+	 * @return How many times faster than real time the clock runs
+	 */
+	public double getFactor()
+	{
+		return factor;
+	}
+
+}
@@ -0,0 +1,72 @@
+package nuber.students;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * An unbounded pool split into several independent shards, using the power of two choices
+ * to keep the shards balanced.
+ * 
+ * Each time a driver is added or taken, two shards are picked at random. A driver is added 
+ * to the one with fewer drivers, and taken from the one with more. Threads mostly touch 
+ * different shards, so they rarely contend, and comparing just two shards is enough to keep
+ * them all close to the same size. Only when both picks are empty are the other shards searched.
+ */
+public class ShardedDriverPool implements DriverPool {
+
+	private final ElasticDriverPool[] shards;
+
+	/**
+	 * @param shardCount How many shards to split the pool into
+	 */
+	public ShardedDriverPool(int shardCount)
+	{
+		shards = new ElasticDriverPool[Math.max(1, shardCount)];
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = new ElasticDriverPool();
+		}
+	}
+
+	@Override
+	public boolean offer(Driver driver)
+	{
+		ElasticDriverPool first = randomShard();
+		ElasticDriverPool second = randomShard();
+		return (first.size() <= second.size() ? first : second).offer(driver);
+	}
+
+	@Override
+	public Driver poll()
+	{
+		ElasticDriverPool first = randomShard();
+		ElasticDriverPool second = randomShard();
+		ElasticDriverPool fuller = first.size() >= second.size() ? first : second;
+		Driver driver = fuller.poll();
+		if (driver != null) {
+			return driver;
+		}
+		int start = ThreadLocalRandom.current().nextInt(shards.length);
+		for (int i = 0; i < shards.length; i++) {
+			driver = shards[(start + i) % shards.length].poll();
+			if (driver != null) {
+				return driver;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public int size()
+	{
+		int size = 0;
+		for (ElasticDriverPool shard : shards) {
+			size += shard.size();
+		}
+		return size;
+	}
+
+	private ElasticDriverPool randomShard()
+	{
+		return shards[ThreadLocalRandom.current().nextInt(shards.length)];
+	}
+
+}
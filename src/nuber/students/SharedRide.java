@@ -0,0 +1,195 @@
+package nuber.students;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A trip that several passengers share, driven by one driver.
+ * 
+ * The ride is opened by the booking that got the driver, its lead booking, and stays open 
+ * while the driver is on the way to pick up the lead passenger. Until then, bookings in the 
+ * same region whose pickup point and destination are both close to the lead passenger's can
+ * join, up to the ride's capacity, instead of waiting for a driver of their own.
+ * 
+ * Once the lead passenger is picked up the ride closes, and the lead booking's thread drives
+ * it: it collects the other passengers in the order they joined, then drops everyone off, 
+ * always going to the nearest remaining destination next. Each joined booking is completed
+ * with its own BookingResult as its passenger is dropped off.
+ * 
+ * If the ride is abandoned, because the lead booking is cancelled, the joined bookings that
+ * have not yet been dropped off are completed with null, and go on to get a driver of their own.
+ */
+class SharedRide {
+
+	final Driver driver;
+	private final NuberDispatch dispatch;
+	private final NuberClock clock;
+	private final Booking lead;
+	private final int capacity;
+	private final double maxDistance;
+	private final ArrayList<Booking> joiners = new ArrayList<Booking>();
+	private final HashMap<Booking, CompletableFuture<BookingResult>> results = new HashMap<Booking, CompletableFuture<BookingResult>>();
+	private final HashMap<Booking, Long> joinedAt = new HashMap<Booking, Long>();
+	private boolean open = true;
+
+	/**
+	 * @param dispatch The dispatch the ride is reported to
+	 * @param lead The booking that got the driver
+	 * @param driver The driver
+	 * @param capacity The most passengers the driver can carry at once
+	 * @param maxDistance How far a joining passenger's pickup point and destination may each be
+	 * 			from the lead passenger's
+	 */
+	SharedRide(NuberDispatch dispatch, Booking lead, Driver driver, int capacity, double maxDistance)
+	{
+		this.dispatch = dispatch;
+		this.clock = dispatch.getConfig().clock;
+		this.lead = lead;
+		this.driver = driver;
+		this.capacity = capacity;
+		this.maxDistance = maxDistance;
+	}
+
+	/**
+	 * Adds a booking to the ride, if the ride is still open, has a free seat, and the booking
+	 * is going from and to somewhere near the lead passenger
+	 * 
+	 * @return true if the booking joined the ride
+	 */
+	synchronized boolean tryJoin(Booking booking)
+	{
+		if (!open || joiners.size() + 1 >= capacity) {
+			return false;
+		}
+		Passenger leadPassenger = lead.getPassenger();
+		Passenger passenger = booking.getPassenger();
+		if (passenger.distanceTo(leadPassenger) > maxDistance
+				|| Math.hypot(passenger.getDestinationX() - leadPassenger.getDestinationX(),
+						passenger.getDestinationY() - leadPassenger.getDestinationY()) > maxDistance) {
+			return false;
+		}
+		joiners.add(booking);
+		results.put(booking, new CompletableFuture<BookingResult>());
+		joinedAt.put(booking, clock.nanoTime());
+		return true;
+	}
+
+	/**
+	 * Gets the future completed when a joined booking's passenger is dropped off
+	 * 
+	 * @return The future, completed with null if the ride is abandoned before the drop off
+	 */
+	synchronized CompletableFuture<BookingResult> resultFor(Booking booking)
+	{
+		return results.get(booking);
+	}
+
+	/**
+	 * Takes a joined booking back out of the ride, which is only possible while the ride is open
+	 * 
+	 * @return true if the booking left the ride
+	 */
+	synchronized boolean leave(Booking booking)
+	{
+		if (!open || !joiners.remove(booking)) {
+			return false;
+		}
+		results.remove(booking).complete(null);
+		return true;
+	}
+
+	/**
+	 * Stops more bookings joining the ride
+	 * 
+	 * @return The bookings that joined
+	 */
+	private synchronized List<Booking> close()
+	{
+		if (open) {
+			open = false;
+			dispatch.closeSharedRide(this);
+		}
+		return new ArrayList<Booking>(joiners);
+	}
+
+	/**
+	 * Abandons the ride, sending every joined booking not yet dropped off to find its own driver
+	 */
+	void abandon()
+	{
+		for (Booking joiner : close()) {
+			resultFor(joiner).complete(null);
+		}
+	}
+
+	/**
+	 * Drives the ride from the lead passenger's pickup point, collecting the other passengers 
+	 * and dropping everyone off. With nobody else on board, this is an ordinary trip to the 
+	 * lead passenger's destination.
+	 * 
+	 * @return The time on the dispatch's clock at which the lead passenger was dropped off
+	 * @throws InterruptedException if the lead booking is cancelled, in which case the ride is abandoned
+	 */
+	long carryPassengers() throws InterruptedException
+	{
+		List<Booking> riders = close();
+		if (riders.isEmpty()) {
+			driver.driveToDestination();
+			return clock.nanoTime();
+		}
+		try {
+			HashMap<Booking, Long> pickedUpAt = new HashMap<Booking, Long>();
+			pickedUpAt.put(lead, clock.nanoTime());
+			for (Booking rider : riders) {
+				Passenger passenger = rider.getPassenger();
+				clock.sleep((long) driver.pickupMillisTo(passenger));
+				driver.moveTo(passenger.getX(), passenger.getY());
+				pickedUpAt.put(rider, clock.nanoTime());
+			}
+
+			ArrayList<Booking> onBoard = new ArrayList<Booking>(riders);
+			onBoard.add(lead);
+			long leadDroppedOff = 0;
+			double detourMillis = 0;
+			while (!onBoard.isEmpty()) {
+				Booking next = onBoard.get(0);
+				for (Booking rider : onBoard) {
+					if (distanceToDestination(rider) < distanceToDestination(next)) {
+						next = rider;
+					}
+				}
+				Passenger passenger = next.getPassenger();
+				clock.sleep((long) driver.driveMillis(distanceToDestination(next)));
+				driver.moveTo(passenger.getDestinationX(), passenger.getDestinationY());
+				onBoard.remove(next);
+
+				long now = clock.nanoTime();
+				double directMillis = driver.driveMillis(Math.hypot(passenger.getX() - passenger.getDestinationX(),
+						passenger.getY() - passenger.getDestinationY()));
+				detourMillis += Math.max(0, TimeUnit.NANOSECONDS.toMillis(now - pickedUpAt.get(next)) - directMillis);
+				if (next == lead) {
+					leadDroppedOff = now;
+				} else {
+					long duration = TimeUnit.NANOSECONDS.toMillis(now - joinedAt.get(next));
+					dispatch.logEvent(next, "is at destination after sharing a ride, using " + duration + " ms");
+					resultFor(next).complete(next.sharedRideResult(driver, joinedAt.get(next), pickedUpAt.get(next), now));
+				}
+			}
+			dispatch.sharedRideFinished(riders.size() + 1, detourMillis);
+			return leadDroppedOff;
+		} catch (InterruptedException e) {
+			abandon();
+			throw e;
+		}
+	}
+
+	private double distanceToDestination(Booking booking)
+	{
+		Passenger passenger = booking.getPassenger();
+		return driver.distanceTo(passenger.getDestinationX(), passenger.getDestinationY());
+	}
+
+}
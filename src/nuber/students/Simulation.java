@@ -1,12 +1,12 @@
 package nuber.students;
 
-import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Queue;
 import java.util.Random;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class Simulation {
 
@@ -20,9 +20,26 @@ public class Simulation {
 	 * @throws Exception
 	 */
 	public Simulation(HashMap<String, Integer> regions, int maxDrivers, int maxPassengers, int maxSleep, boolean logEvents) throws Exception {
+		this(regions, maxDrivers, maxPassengers, maxSleep, logEvents, NuberClock.SYSTEM);
+	}
+	
+	/**
+	 * Runs the simulation on the given clock, so with a ScaledClock it finishes in a fraction
+	 * of the time, while every sleep and every reported time is still in simulated time
+	 * 
+	 * @param regions The region names and maximum simultaneous active bookings allowed in that region
+	 * @param maxDrivers The number of drivers to create
+	 * @param maxPassengers The number of passengers to create
+	 * @param maxSleep The maximum amount a thread will sleep (in milliseconds)) to simulate driving to, or dropping off a passenger
+	 * @param logEvents Whether to log booking events to the console
+	 * @param clock The clock the simulation runs on
+	 * @throws Exception
+	 */
+	public Simulation(HashMap<String, Integer> regions, int maxDrivers, int maxPassengers, int maxSleep, boolean logEvents,
+			NuberClock clock) throws Exception {
 		
 		//store the current time
-		long start = new Date().getTime();
+		long start = clock.nanoTime();
 		
 		//print some space in the console
 		System.out.println("\n\n\n");
@@ -33,8 +50,10 @@ public class Simulation {
 		//convert the region names from the regions map into an array
 		String[] regionNames = regions.keySet().toArray(new String[0]);
 
-		//create a new dispatch object
-		NuberDispatch dispatch = new NuberDispatch(regions, logEvents);
+		//create a new dispatch object, running on the simulation's clock
+		DispatchConfig config = new DispatchConfig();
+		config.clock = clock;
+		NuberDispatch dispatch = new NuberDispatch(regions, logEvents, config);
 
 		// create drivers that are available for jobs
 		for (int i = 0; i < maxDrivers; i++) {
@@ -86,14 +105,14 @@ public class Simulation {
 
 			//sleep for 1s and then print out the current bookings
 			try {
-				Thread.sleep(1000);
+				clock.sleep(1000);
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 			}
 		}
 
 		//print out the final information for the simulation run
-		long totalTime = new Date().getTime() - start;
+		long totalTime = TimeUnit.NANOSECONDS.toMillis(clock.nanoTime() - start);
 		System.out.println("Simulation complete in " + totalTime + "ms");
 	}
 }
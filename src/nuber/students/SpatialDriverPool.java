@@ -0,0 +1,158 @@
+package nuber.students;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of idle drivers indexed by where they are, so a booking can be given the driver
+ * nearest to its passenger.
+ * 
+ * The city is divided into a uniform grid of cells, each holding the idle drivers inside it 
+ * in a lock-free queue. A nearest driver search looks at the passenger's own cell, then at 
+ * rings of cells further and further out, and stops as soon as no cell in the next ring can 
+ * be closer than the best driver found so far. Drivers are added and removed without any 
+ * locks, and if two bookings pick the same driver, only one of them manages to remove it and 
+ * the other searches again.
+ */
+public class SpatialDriverPool implements DriverPool {
+
+	private final int cellsPerSide;
+	private final double cellSize;
+	private final int capacity;
+	private final ArrayList<ConcurrentLinkedQueue<Driver>> cells;
+	private final AtomicInteger size = new AtomicInteger(0);
+	private final AtomicInteger nextCell = new AtomicInteger(0);
+
+	/**
+	 * @param capacity The most idle drivers the pool can hold
+	 * @param cellsPerSide How many cells the city is divided into along each side
+	 */
+	public SpatialDriverPool(int capacity, int cellsPerSide)
+	{
+		this.capacity = capacity;
+		this.cellsPerSide = Math.max(1, cellsPerSide);
+		this.cellSize = 1.0 / this.cellsPerSide;
+		cells = new ArrayList<ConcurrentLinkedQueue<Driver>>(this.cellsPerSide * this.cellsPerSide);
+		for (int i = 0; i < this.cellsPerSide * this.cellsPerSide; i++) {
+			cells.add(new ConcurrentLinkedQueue<Driver>());
+		}
+	}
+
+	@Override
+	public boolean offer(Driver driver)
+	{
+		int current;
+		do {
+			current = size.get();
+			if (current >= capacity) {
+				return false;
+			}
+		} while (!size.compareAndSet(current, current + 1));
+		cellAt(cellIndex(driver.getX()), cellIndex(driver.getY())).add(driver);
+		return true;
+	}
+
+	/**
+	 * Takes any idle driver, looking through the cells from a different starting cell each 
+	 * time so drivers are not always taken from the same corner of the city
+	 */
+	@Override
+	public Driver poll()
+	{
+		if (size.get() == 0) {
+			return null;
+		}
+		int start = Math.floorMod(nextCell.getAndIncrement(), cells.size());
+		for (int i = 0; i < cells.size(); i++) {
+			Driver driver = cells.get((start + i) % cells.size()).poll();
+			if (driver != null) {
+				size.decrementAndGet();
+				return driver;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Driver pollNearest(Person person)
+	{
+		while (size.get() > 0) {
+			Driver nearest = findNearest(person.getX(), person.getY());
+			if (nearest == null) {
+				return null;
+			}
+			// another booking may have taken the driver since we found it
+			if (cellAt(cellIndex(nearest.getX()), cellIndex(nearest.getY())).remove(nearest)) {
+				size.decrementAndGet();
+				return nearest;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public int size()
+	{
+		return size.get();
+	}
+
+	/**
+	 * Searches rings of cells around the point, from the point's own cell outwards
+	 * 
+	 * @return The nearest idle driver, or null if none were found
+	 */
+	private Driver findNearest(double x, double y)
+	{
+		int column = cellIndex(x);
+		int row = cellIndex(y);
+		Driver nearest = nearestIn(column, row, x, y, null);
+		for (int ring = 1; ring < cellsPerSide; ring++) {
+			// every cell in this ring is at least (ring - 1) cells away from the point
+			if (nearest != null && nearest.distanceTo(x, y) <= (ring - 1) * cellSize) {
+				break;
+			}
+			for (int i = -ring; i <= ring; i++) {
+				nearest = nearestIn(column + i, row - ring, x, y, nearest);
+				nearest = nearestIn(column + i, row + ring, x, y, nearest);
+				if (i != -ring && i != ring) {
+					nearest = nearestIn(column - ring, row + i, x, y, nearest);
+					nearest = nearestIn(column + ring, row + i, x, y, nearest);
+				}
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Looks through one cell for a driver nearer to the point than the nearest found so far
+	 * 
+	 * @return The nearer driver, or nearest if the cell has none or is outside the city
+	 */
+	private Driver nearestIn(int column, int row, double x, double y, Driver nearest)
+	{
+		if (column < 0 || column >= cellsPerSide || row < 0 || row >= cellsPerSide) {
+			return nearest;
+		}
+		double nearestDistance = nearest == null ? Double.MAX_VALUE : nearest.distanceTo(x, y);
+		for (Driver driver : cellAt(column, row)) {
+			double distance = driver.distanceTo(x, y);
+			if (distance < nearestDistance) {
+				nearest = driver;
+				nearestDistance = distance;
+			}
+		}
+		return nearest;
+	}
+
+	private int cellIndex(double coordinate)
+	{
+		return Math.min(cellsPerSide - 1, Math.max(0, (int) (coordinate * cellsPerSide)));
+	}
+
+	private ConcurrentLinkedQueue<Driver> cellAt(int column, int row)
+	{
+		return cells.get(row * cellsPerSide + column);
+	}
+
+}
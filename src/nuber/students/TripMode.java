@@ -0,0 +1,18 @@
+package nuber.students;
+
+/**
+ * Controls how the pickup and travel phases of a booking spend their simulated time.
+ */
+public enum TripMode {
+
+	/**
+	 * The booking's thread sleeps through pickup and travel inside Driver (the original behaviour)
+	 */
+	BLOCKING,
+
+	/**
+	 * Pickup and travel are scheduled as events on the dispatch's HashedWheelTimer, and the
+	 * booking carries on as a callback, so no thread is held while the trip is under way
+	 */
+	TIMER
+}